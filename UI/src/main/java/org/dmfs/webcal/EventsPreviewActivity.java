@@ -21,13 +21,18 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.view.GestureDetector;
 import android.view.MenuItem;
+import android.view.MotionEvent;
+import android.view.View;
 
 import net.opacapp.multilinecollapsingtoolbar.CollapsingToolbarLayout;
 
 import org.dmfs.android.retentionmagic.annotations.Parameter;
+import org.dmfs.android.retentionmagic.annotations.Retain;
 import org.dmfs.webcal.fragments.EventsPreviewDetailFragment;
 import org.dmfs.webcal.utils.Event;
+import org.dmfs.webcal.utils.EventBatch;
 import org.dmfs.webcal.utils.UpButtonDrawable;
 import org.dmfs.webcal.utils.color.ResourceColor;
 
@@ -38,7 +43,8 @@ import androidx.fragment.app.FragmentTransaction;
 
 
 /**
- * An Activity that presents the details of an event to the user.
+ * An Activity that presents the details of an event to the user. If it has been started with an {@link EventBatch}, the user can page through the events of
+ * the batch by swiping horizontally.
  *
  * @author Marten Gajda <marten@dmfs.org>
  */
@@ -50,12 +56,20 @@ public class EventsPreviewActivity extends BaseActivity
     private static final String EXTRA_CALENDAR_NAME = "org.dmfs.webcal.EventsPreviewActivity.CALENDAR_NAME";
     private static final String EXTRA_CALENDAR_IMAGE = "org.dmfs.webcal.EventsPreviewActivity.CALENDAR_IMAGE_URL";
     private static final String EXTRA_PREVIEW_EVENT = "org.dmfs.webcal.EventsPreviewActivity.PREVIEW_EVENT";
+    private static final String EXTRA_PREVIEW_EVENTS = "org.dmfs.webcal.EventsPreviewActivity.PREVIEW_EVENTS";
     private static final String EXTRA_PAGE_TITLE = "org.dmfs.webcal.EventsPreviewActivity.PAGE_TITLE";
     private static final String EXTRA_CONTENT_ITEM_URI = "org.dmfs.webcal.EventsPreviewActivity.CONTENT_ITEM_URI";
 
     private static final String CONTENT_TYPE_EVENT = "vnd.android.cursor.item/event";
     @Parameter(key = EXTRA_PREVIEW_EVENT)
     Event mEvent = null;
+    @Parameter(key = EXTRA_PREVIEW_EVENTS)
+    EventBatch mEvents = null;
+    /**
+     * The position of the event in {@link #mEvents} that's currently shown.
+     */
+    @Retain
+    int mPosition = -1;
     @Parameter(key = EXTRA_CALENDAR_NAME)
     private String mCalendarName;
     @Parameter(key = EXTRA_CALENDAR_IMAGE)
@@ -93,12 +107,48 @@ public class EventsPreviewActivity extends BaseActivity
     }
 
 
+    /**
+     * Shows a details view for the selected event of the given {@link EventBatch}. The user can page through the other events of the batch.
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param events
+     *         The events to present.
+     * @param calendarName
+     *         The name of the calendar.
+     * @param mIconId
+     *         An icon id.
+     * @param title
+     *         The title of the page.
+     */
+    public static void show(Context context, EventBatch events, String calendarName, long mIconId, String title, Uri contentItemUri)
+    {
+        Intent intent = new Intent(context, EventsPreviewActivity.class);
+        intent.putExtra(EXTRA_CALENDAR_NAME, calendarName);
+        intent.putExtra(EXTRA_CALENDAR_IMAGE, mIconId);
+        intent.putExtra(EXTRA_PREVIEW_EVENTS, events);
+        intent.putExtra(EXTRA_PAGE_TITLE, title);
+        intent.putExtra(EXTRA_CONTENT_ITEM_URI, contentItemUri);
+        context.startActivity(intent);
+    }
+
+
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_events_preview);
 
+        if (mEvents != null)
+        {
+            if (mPosition < 0 || mPosition >= mEvents.size())
+            {
+                mPosition = mEvents.selection();
+            }
+            mEvent = mEvents.get(mPosition);
+            enablePaging();
+        }
+
         if (savedInstanceState == null)
         {
             FragmentManager fragmentManager = getSupportFragmentManager();
@@ -121,6 +171,64 @@ public class EventsPreviewActivity extends BaseActivity
     }
 
 
+    /**
+     * Lets the user swipe to the previous or next event of {@link #mEvents}.
+     */
+    private void enablePaging()
+    {
+        final GestureDetector gestureDetector = new GestureDetector(this, new GestureDetector.SimpleOnGestureListener()
+        {
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY)
+            {
+                if (e1 == null || Math.abs(velocityX) < 2 * Math.abs(velocityY))
+                {
+                    // not a horizontal swipe
+                    return false;
+                }
+                return showEvent(velocityX < 0 ? mPosition + 1 : mPosition - 1);
+            }
+        });
+
+        findViewById(R.id.scroll).setOnTouchListener(new View.OnTouchListener()
+        {
+            @Override
+            public boolean onTouch(View view, MotionEvent event)
+            {
+                // don't consume the event, so the view can still scroll vertically
+                gestureDetector.onTouchEvent(event);
+                return false;
+            }
+        });
+    }
+
+
+    /**
+     * Shows the event at the given position of {@link #mEvents}.
+     *
+     * @param position
+     *         The position of the event to show.
+     *
+     * @return <code>true</code> if the event is shown, <code>false</code> if there is no event at that position.
+     */
+    private boolean showEvent(int position)
+    {
+        if (position < 0 || position >= mEvents.size() || position == mPosition)
+        {
+            return false;
+        }
+
+        mPosition = position;
+        mEvent = mEvents.get(position);
+
+        getSupportFragmentManager().beginTransaction()
+                .replace(R.id.events_preview_fragment_container, EventsPreviewDetailFragment.newInstance(mEvent, mCalendarName, mCalendarIconId, mTitle))
+                .commit();
+        ((CollapsingToolbarLayout) findViewById(R.id.collapsing_toolbar)).setTitle(mEvent.title);
+        return true;
+    }
+
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item)
     {
@@ -19,22 +19,14 @@ package org.dmfs.webcal.adapters;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.text.TextUtils;
-import android.text.format.DateUtils;
-import android.text.format.Time;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
 import android.widget.TextView;
 
-import org.dmfs.android.webcalreader.provider.WebCalReaderContract;
-import org.dmfs.rfc5545.DateTime;
-import org.dmfs.rfc5545.Duration;
 import org.dmfs.webcal.R;
 
-import java.util.TimeZone;
-
 
 /**
  * Adapter for event listings.
@@ -46,105 +38,70 @@ public class EventListAdapter extends CursorAdapter
 {
     private final LayoutInflater mInflater;
 
+    /**
+     * Creates the rows of cursors that have not been prepared by {@link EventRowCursor#precompute(Context, Cursor)}.
+     */
+    private EventRow.Factory mRowFactory;
+
 
     public EventListAdapter(Context context, Cursor cursor)
     {
         super(context, cursor, false);
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        mRowFactory = cursor == null ? null : new EventRow.Factory(context, cursor);
     }
 
 
     @Override
-    public void bindView(View view, Context context, Cursor cursor)
+    public Cursor swapCursor(Cursor newCursor)
     {
+        // the factory resolves the column indices when it's created, bindView reuses them for all rows of the cursor
+        mRowFactory = newCursor == null || newCursor instanceof EventRowCursor ? null : new EventRow.Factory(mContext, newCursor);
+        return super.swapCursor(newCursor);
+    }
 
-        Time now = new Time();
-        now.setToNow();
-
-        Tag tag = (Tag) view.getTag();
 
-        tag.title.setText(cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.TITLE)));
+    /**
+     * Returns <code>true</code>, {@link #getItemId(int)} returns the provider ids of the events, which are unique within a result, even for duplicate events.
+     */
+    @Override
+    public boolean hasStableIds()
+    {
+        return true;
+    }
 
-        boolean allday = cursor.getInt(cursor.getColumnIndex(WebCalReaderContract.Events.IS_ALLDAY)) == 1;
 
-        DateTime start = new DateTime(cursor.getLong(cursor.getColumnIndex(WebCalReaderContract.Events.DTSTART)));
-        String tz = cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.TIMZONE));
-        if (tz != null)
-        {
-            start = start.shiftTimeZone(TimeZone.getTimeZone(tz));
-        }
-        else if (allday)
-        {
-            start = start.toAllDay();
-        }
+    @Override
+    public void bindView(View view, Context context, Cursor cursor)
+    {
+        Tag tag = (Tag) view.getTag();
 
-        DateTime end = new DateTime(cursor.getLong(cursor.getColumnIndex(WebCalReaderContract.Events.DTEND)));
-        if (tz != null)
-        {
-            end = end.shiftTimeZone(TimeZone.getTimeZone(tz));
-        }
-        else if (allday)
+        EventRow row = cursor instanceof EventRowCursor ? ((EventRowCursor) cursor).row() : mRowFactory.create(cursor);
+        if (row.equals(tag.row))
         {
-            end = end.toAllDay();
+            // the view already shows this event, don't touch it to avoid another layout pass
+            return;
         }
+        tag.row = row;
 
-        if (!allday)
-        {
-            tag.text1.setText(DateUtils.formatDateTime(context, start.getTimestamp(), DateUtils.FORMAT_SHOW_TIME));
-        }
-        else
-        {
-            tag.text1.setText(context.getString(R.string.all_day));
-        }
+        tag.title.setText(row.title);
+        tag.text1.setText(row.startTime);
 
-        if (!allday)
+        if (row.endTime != null)
         {
-            if (end.after(start.addDuration(new Duration(1, 0, 12 * 3600))))
-            {
-                tag.endTime.setText(
-                        DateUtils.formatDateTime(context, end.getTimestamp(),
-                                DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_NO_YEAR | DateUtils.FORMAT_ABBREV_MONTH)
-                                + "\n" + DateUtils.formatDateTime(context, end.getTimestamp(), DateUtils.FORMAT_SHOW_TIME));
-                tag.ellipsis.setVisibility(View.VISIBLE);
-                tag.endTime.setVisibility(View.VISIBLE);
-            }
-            else
-            {
-                if (end.equals(start))
-                {
-                    tag.ellipsis.setVisibility(View.GONE);
-                    tag.endTime.setVisibility(View.GONE);
-                }
-                else
-                {
-                    tag.endTime.setText(DateUtils.formatDateTime(context, end.getTimestamp(), DateUtils.FORMAT_SHOW_TIME));
-                    tag.ellipsis.setVisibility(View.VISIBLE);
-                    tag.endTime.setVisibility(View.VISIBLE);
-                }
-            }
+            tag.endTime.setText(row.endTime);
+            tag.ellipsis.setVisibility(View.VISIBLE);
+            tag.endTime.setVisibility(View.VISIBLE);
         }
         else
         {
-            if (end.after(start.addDuration(new Duration(1, 1, 0))))
-            {
-                tag.ellipsis.setVisibility(View.VISIBLE);
-                tag.endTime.setVisibility(View.VISIBLE);
-
-                tag.endTime
-                        .setText(DateUtils.formatDateTime(context, end.swapTimeZone(TimeZone.getDefault()).addDuration(new Duration(-1, 1, 0)).getTimestamp(),
-                                DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_NO_YEAR | DateUtils.FORMAT_ABBREV_MONTH));
-            }
-            else
-            {
-                tag.ellipsis.setVisibility(View.GONE);
-                tag.endTime.setVisibility(View.GONE);
-            }
+            tag.ellipsis.setVisibility(View.GONE);
+            tag.endTime.setVisibility(View.GONE);
         }
 
-        String location = cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.LOCATION));
-        if (!TextUtils.isEmpty(location))
+        if (row.location != null)
         {
-            tag.text2.setText(location.trim());
+            tag.text2.setText(row.location);
             tag.text2.setVisibility(View.VISIBLE);
         }
         else
@@ -152,43 +109,15 @@ public class EventListAdapter extends CursorAdapter
             tag.text2.setVisibility(View.GONE);
         }
 
-        String description = cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.DESCRIPTION));
-        if (!TextUtils.isEmpty(description))
+        if (row.description != null)
         {
-            description = description.trim();
-
-            int newlinePos = description.indexOf('\n');
-            if (newlinePos >= 0)
-            {
-                newlinePos = description.indexOf('\n', newlinePos + 1);
-                if (newlinePos >= 0)
-                {
-                    newlinePos = description.indexOf('\n', newlinePos + 1);
-                    if (newlinePos >= 0)
-                    {
-                        // we have more than two lines, cut off everything from here
-                        description = description.substring(0, newlinePos + 1);
-                    }
-                }
-            }
-
-            tag.description.setText(description);
+            tag.description.setText(row.description);
             tag.description.setVisibility(View.VISIBLE);
         }
         else
         {
             tag.description.setVisibility(View.GONE);
         }
-        //
-        // if (now.after(end))
-        // {
-        // view.setBackgroundResource(R.drawable.card_gray_bg);
-        // }
-        // else
-        // {
-        // view.setBackgroundResource(R.drawable.card_bg);
-        // }
-        //
     }
 
 
@@ -210,6 +139,11 @@ public class EventListAdapter extends CursorAdapter
         public final TextView endTime;
         public final TextView description;
 
+        /**
+         * The {@link EventRow} this view currently shows.
+         */
+        public EventRow row;
+
 
         public Tag(View view)
         {
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.adapters;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import org.dmfs.android.webcalreader.provider.WebCalReaderContract;
+import org.dmfs.rfc5545.DateTime;
+import org.dmfs.webcal.utils.DateFormatCache;
+import org.dmfs.webcal.utils.Event;
+import org.dmfs.webcal.utils.EventFormatter;
+
+import java.util.TimeZone;
+
+
+/**
+ * The content of a single row of an event list, ready to be shown. Instances are immutable.
+ * <p>
+ * Two rows are equal if they show the same content.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class EventRow
+{
+    /**
+     * The title of the event.
+     */
+    public final String title;
+
+    /**
+     * The formatted start time of the event.
+     */
+    public final String startTime;
+
+    /**
+     * The formatted end time of the event or <code>null</code> if no end time is shown.
+     */
+    public final String endTime;
+
+    /**
+     * The trimmed location of the event or <code>null</code> if the event has no location.
+     */
+    public final String location;
+
+    /**
+     * The first lines of the description of the event or <code>null</code> if the event has no description.
+     */
+    public final String description;
+
+    /**
+     * The day the event starts at in its own time zone, encoded as <code>(year &lt;&lt; 16) + (month &lt;&lt; 8) + dayOfMonth</code>.
+     */
+    public final int day;
+
+    /**
+     * The id of the event, as provided by the {@link BaseColumns#_ID} column of the events. Unlike positions and hashes of the event values it's unique
+     * within a result, even if the calendar contains duplicate events.
+     */
+    public final long id;
+
+
+    private EventRow(long id, String title, String startTime, String endTime, String location, String description, int day)
+    {
+        this.id = id;
+        this.day = day;
+        this.title = title;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.location = location;
+        this.description = description;
+    }
+
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof EventRow))
+        {
+            return false;
+        }
+        EventRow other = (EventRow) o;
+        return id == other.id && day == other.day && TextUtils.equals(title, other.title) && TextUtils.equals(startTime, other.startTime)
+                && TextUtils.equals(endTime, other.endTime) && TextUtils.equals(location, other.location) && TextUtils.equals(description, other.description);
+    }
+
+
+    @Override
+    public int hashCode()
+    {
+        return (int) (id ^ (id >>> 32));
+    }
+
+
+    /**
+     * Creates {@link EventRow}s from the rows of an events {@link Cursor}. The column indices are resolved once, when the factory is created.
+     * <p>
+     * Instances are not thread safe.
+     * </p>
+     */
+    static final class Factory
+    {
+        private final EventFormatter mFormatter;
+
+        private final int mIdColumn;
+        private final int mTitleColumn;
+        private final int mAllDayColumn;
+        private final int mStartColumn;
+        private final int mEndColumn;
+        private final int mTimeZoneColumn;
+        private final int mLocationColumn;
+        private final int mDescriptionColumn;
+
+
+        /**
+         * Create a factory for the rows of the given cursor.
+         *
+         * @param context
+         *         A {@link Context}.
+         * @param cursor
+         *         The events {@link Cursor}.
+         */
+        Factory(Context context, Cursor cursor)
+        {
+            mFormatter = new EventFormatter(context);
+            // CursorAdapter requires this column, so every events cursor has it
+            mIdColumn = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+            mTitleColumn = cursor.getColumnIndex(WebCalReaderContract.Events.TITLE);
+            mAllDayColumn = cursor.getColumnIndex(WebCalReaderContract.Events.IS_ALLDAY);
+            mStartColumn = cursor.getColumnIndex(WebCalReaderContract.Events.DTSTART);
+            mEndColumn = cursor.getColumnIndex(WebCalReaderContract.Events.DTEND);
+            mTimeZoneColumn = cursor.getColumnIndex(WebCalReaderContract.Events.TIMZONE);
+            mLocationColumn = cursor.getColumnIndex(WebCalReaderContract.Events.LOCATION);
+            mDescriptionColumn = cursor.getColumnIndex(WebCalReaderContract.Events.DESCRIPTION);
+        }
+
+
+        /**
+         * Create an {@link EventRow} from the current row of the given cursor.
+         *
+         * @param cursor
+         *         The events {@link Cursor}, positioned at the event to convert.
+         *
+         * @return The {@link EventRow}.
+         */
+        EventRow create(Cursor cursor)
+        {
+            boolean allday = cursor.getInt(mAllDayColumn) == 1;
+
+            String tz = cursor.getString(mTimeZoneColumn);
+            TimeZone timeZone = tz == null ? null : DateFormatCache.INSTANCE.timeZone(tz);
+
+            DateTime start = new DateTime(cursor.getLong(mStartColumn));
+            DateTime end = new DateTime(cursor.getLong(mEndColumn));
+            if (timeZone != null)
+            {
+                start = start.shiftTimeZone(timeZone);
+                end = end.shiftTimeZone(timeZone);
+            }
+            else if (allday)
+            {
+                start = start.toAllDay();
+                end = end.toAllDay();
+            }
+
+            String startTime = mFormatter.listStartTime(start, allday);
+            String endTime = mFormatter.listEndTime(start, end, allday);
+
+            String location = cursor.getString(mLocationColumn);
+            location = TextUtils.isEmpty(location) ? null : location.trim();
+
+            return new EventRow(id(cursor), cursor.getString(mTitleColumn), startTime, endTime, location, shortDescription(cursor.getString(mDescriptionColumn)),
+                    (start.getYear() << 16) + (start.getMonth() << 8) + start.getDayOfMonth());
+        }
+
+
+        /**
+         * Create an {@link Event} from the current row of the given cursor.
+         *
+         * @param cursor
+         *         The events {@link Cursor}, positioned at the event to convert.
+         *
+         * @return The {@link Event}.
+         */
+        Event event(Cursor cursor)
+        {
+            String tz = cursor.getString(mTimeZoneColumn);
+            TimeZone timeZone = tz == null ? null : DateFormatCache.INSTANCE.timeZone(tz);
+
+            DateTime start = new DateTime(timeZone, cursor.getLong(mStartColumn));
+            DateTime end = new DateTime(timeZone, cursor.getLong(mEndColumn));
+            if (cursor.getInt(mAllDayColumn) != 0)
+            {
+                start = start.toAllDay();
+                end = end.toAllDay();
+            }
+            return new Event(start, end, cursor.getString(mTitleColumn), cursor.getString(mDescriptionColumn), cursor.getString(mLocationColumn));
+        }
+
+
+        /**
+         * Returns the id of the event in the current row of the given cursor.
+         *
+         * @param cursor
+         *         The events {@link Cursor}, positioned at the event.
+         *
+         * @return The value of the {@link BaseColumns#_ID} column.
+         */
+        long id(Cursor cursor)
+        {
+            return cursor.getLong(mIdColumn);
+        }
+
+
+        /**
+         * Returns the first lines of the given description.
+         */
+        private static String shortDescription(String description)
+        {
+            if (TextUtils.isEmpty(description))
+            {
+                return null;
+            }
+
+            description = description.trim();
+
+            int newlinePos = description.indexOf('\n');
+            if (newlinePos >= 0)
+            {
+                newlinePos = description.indexOf('\n', newlinePos + 1);
+                if (newlinePos >= 0)
+                {
+                    newlinePos = description.indexOf('\n', newlinePos + 1);
+                    if (newlinePos >= 0)
+                    {
+                        // we have more than two lines, cut off everything from here
+                        description = description.substring(0, newlinePos + 1);
+                    }
+                }
+            }
+            return description;
+        }
+    }
+}
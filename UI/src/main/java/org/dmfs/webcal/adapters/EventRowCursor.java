@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.adapters;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+
+import org.dmfs.android.webcalreader.provider.WebCalReaderContract;
+import org.dmfs.webcal.utils.CursorSnapshot;
+import org.dmfs.webcal.utils.DateFormatCache;
+import org.dmfs.webcal.utils.Event;
+import org.dmfs.webcal.utils.EventBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A {@link CursorWrapper} for events that carries an {@link EventRow} for each of its rows. The rows are built when the cursor is created, which is meant
+ * to happen in the background, e.g. in the loader that loads the events. {@link EventListAdapter} binds such cursors by just copying the prepared values.
+ * <p>
+ * The events are copied into a {@link CursorSnapshot}. Each {@link EventRowCursor} reads the snapshot through a cursor of its own, so widening the window
+ * in the background never blocks reading the current cursor on the main thread.
+ * </p>
+ * <p>
+ * The cursor can be limited to a window of time. In that case it only contains the events that start within that window and rows are only built for these.
+ * {@link #hasEarlier()} and {@link #hasLater()} tell whether the wrapped cursor has events outside of the window. {@link #widen(Context, long, long)}
+ * extends the window without querying the events again.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class EventRowCursor extends CursorWrapper implements SectionTitlesAdapter.IndexedCursor
+{
+    private final CursorSnapshot mSnapshot;
+    private final EventRow[] mRows;
+    private final EventRow.Factory mFactory;
+
+    /**
+     * The {@link EventRow#day} of each row, for quick searches.
+     */
+    private final int[] mDays;
+
+    /**
+     * The positions of the rows of this cursor in the wrapped cursor.
+     */
+    private final int[] mPositions;
+
+    /**
+     * The section index with one section per day.
+     */
+    private final SectionTitlesAdapter.Index mSectionIndex;
+    private final long mWindowStart;
+    private final long mWindowEnd;
+    private final boolean mHasEarlier;
+    private final boolean mHasLater;
+    private int mPosition = -1;
+
+
+    private EventRowCursor(CursorSnapshot snapshot, Cursor cursor, EventRow.Factory factory, EventRow[] rows, int[] days, String[] dayTitles, int[] positions,
+                           long windowStart, long windowEnd, boolean hasEarlier, boolean hasLater)
+    {
+        super(cursor);
+        mSnapshot = snapshot;
+        mFactory = factory;
+        mRows = rows;
+        mDays = days;
+        mSectionIndex = new SectionTitlesAdapter.Index(days, dayTitles);
+        mPositions = positions;
+        mWindowStart = windowStart;
+        mWindowEnd = windowEnd;
+        mHasEarlier = hasEarlier;
+        mHasLater = hasLater;
+    }
+
+
+    /**
+     * Builds the {@link EventRow}s of all events in the given cursor. This iterates the entire cursor, so don't call it on the main thread. The given cursor
+     * is copied and closed, the result receives its change notifications.
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param cursor
+     *         The events {@link Cursor}, may be <code>null</code>.
+     *
+     * @return An {@link EventRowCursor} that wraps the given cursor or <code>null</code> if the cursor was <code>null</code>.
+     */
+    public static EventRowCursor precompute(Context context, Cursor cursor)
+    {
+        return precompute(context, cursor, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+
+    /**
+     * Builds the {@link EventRow}s of all events in the given cursor that start within the given window. The resulting cursor only contains these events. This
+     * iterates the entire cursor, so don't call it on the main thread. The given cursor is copied and closed, the result receives its change notifications.
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param cursor
+     *         The events {@link Cursor} sorted by start, may be <code>null</code>.
+     * @param windowStart
+     *         The start of the window in milliseconds since the epoch (inclusive).
+     * @param windowEnd
+     *         The end of the window in milliseconds since the epoch (exclusive).
+     *
+     * @return An {@link EventRowCursor} that wraps the given cursor or <code>null</code> if the cursor was <code>null</code>.
+     */
+    public static EventRowCursor precompute(Context context, Cursor cursor, long windowStart, long windowEnd)
+    {
+        if (cursor == null)
+        {
+            return null;
+        }
+
+        CursorSnapshot snapshot;
+        Uri notificationUri = cursor.getNotificationUri();
+        try
+        {
+            snapshot = CursorSnapshot.copy(cursor);
+        }
+        finally
+        {
+            // the copy has all we need, release the cursor window right away
+            cursor.close();
+        }
+
+        Cursor snapshotCursor = snapshot.cursor(context.getContentResolver(), notificationUri);
+        return build(context, snapshot, snapshotCursor, new EventRow.Factory(context, snapshotCursor), null, windowStart, windowEnd);
+    }
+
+
+    /**
+     * Returns a new {@link EventRowCursor} on the same events with a window that covers this window and the given one. Rows of this cursor are reused, rows
+     * are only built for the events that have been outside of this window. This doesn't query the events again, so it may be called on any thread, but
+     * building the new rows takes time, so don't call it on the main thread.
+     * <p>
+     * The new cursor reads the same {@link CursorSnapshot} through a cursor of its own, so this cursor can be used while the new one is being built. The new
+     * cursor doesn't receive change notifications, keep this one open until the new one has been replaced.
+     * </p>
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param windowStart
+     *         The start of the new window in milliseconds since the epoch (inclusive).
+     * @param windowEnd
+     *         The end of the new window in milliseconds since the epoch (exclusive).
+     *
+     * @return The new {@link EventRowCursor}.
+     */
+    public EventRowCursor widen(Context context, long windowStart, long windowEnd)
+    {
+        return build(context, mSnapshot, mSnapshot.cursor(), mFactory, this, Math.min(windowStart, mWindowStart), Math.max(windowEnd, mWindowEnd));
+    }
+
+
+    /**
+     * Builds an {@link EventRowCursor} with the events that start within the given window, reusing the rows of the given previous cursor. The given cursor
+     * must be a cursor on the given snapshot that nobody else uses, it becomes the wrapped cursor of the result.
+     */
+    private static EventRowCursor build(Context context, CursorSnapshot snapshot, Cursor cursor, EventRow.Factory factory, EventRowCursor previous,
+                                        long windowStart, long windowEnd)
+    {
+        int startColumn = cursor.getColumnIndex(WebCalReaderContract.Events.DTSTART);
+        int[] positions = new int[cursor.getCount()];
+        int count = 0;
+        boolean hasEarlier = false;
+        boolean hasLater = false;
+
+        // determine the events in the window first, that's cheap compared to building rows
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext())
+        {
+            long start = cursor.getLong(startColumn);
+            if (start < windowStart)
+            {
+                hasEarlier = true;
+            }
+            else if (start >= windowEnd)
+            {
+                hasLater = true;
+            }
+            else
+            {
+                positions[count++] = cursor.getPosition();
+            }
+        }
+
+        EventRow[] rows = new EventRow[count];
+        int[] days = new int[count];
+        String[] dayTitles = new String[count];
+        int lastDay = -1;
+        // the index of the next row of the previous cursor that may be reused, both cursors are in the order of the wrapped cursor
+        int reuse = 0;
+        for (int i = 0; i < count; ++i)
+        {
+            int position = positions[i];
+            EventRow row = null;
+            if (previous != null)
+            {
+                int[] previousPositions = previous.mPositions;
+                while (reuse < previousPositions.length && previousPositions[reuse] < position)
+                {
+                    ++reuse;
+                }
+                if (reuse < previousPositions.length && previousPositions[reuse] == position)
+                {
+                    row = previous.mRows[reuse];
+                }
+            }
+            if (row == null)
+            {
+                cursor.moveToPosition(position);
+                row = factory.create(cursor);
+            }
+            rows[i] = row;
+            days[i] = row.day;
+            if (row.day != lastDay)
+            {
+                // the section index only needs the title of the first event of each day
+                dayTitles[i] = DateFormatCache.INSTANCE.dayTitle(context, row.day);
+                lastDay = row.day;
+            }
+        }
+        cursor.moveToPosition(-1);
+        return new EventRowCursor(snapshot, cursor, factory, rows, days, dayTitles, count == positions.length ? positions : Arrays.copyOf(positions, count), windowStart,
+                windowEnd, hasEarlier, hasLater);
+    }
+
+
+    @Override
+    public SectionTitlesAdapter.Index sectionIndex()
+    {
+        return mSectionIndex;
+    }
+
+
+    /**
+     * Returns the {@link EventRow} at the current position.
+     *
+     * @return The {@link EventRow}.
+     */
+    public EventRow row()
+    {
+        return mRows[mPosition];
+    }
+
+
+    /**
+     * Returns the {@link Event} at the current position.
+     *
+     * @return The {@link Event}.
+     */
+    public Event event()
+    {
+        return mFactory.event(getWrappedCursor());
+    }
+
+
+    /**
+     * Returns the {@link Event}s around the given position, as many as fit into an {@link EventBatch} of at most {@link EventBatch#MAX_PARCEL_SIZE}
+     * bytes, but no more than the given number in either direction. The position of this cursor is restored afterwards.
+     *
+     * @param position
+     *         The position of the event in the center of the batch.
+     * @param maxNeighbours
+     *         The maximum number of events to add before and after the center event.
+     *
+     * @return An {@link EventBatch} with the center event selected.
+     */
+    public EventBatch events(int position, int maxNeighbours)
+    {
+        int oldPosition = mPosition;
+        List<Event> before = new ArrayList<Event>(maxNeighbours);
+        List<Event> after = new ArrayList<Event>(maxNeighbours + 1);
+
+        moveToPosition(position);
+        Event center = event();
+        after.add(center);
+        int size = EventBatch.parcelSize(center);
+
+        // add neighbours alternately on both sides, until the size budget is exhausted
+        for (int i = 1; i <= maxNeighbours; ++i)
+        {
+            boolean added = false;
+            if (moveToPosition(position - i))
+            {
+                Event event = event();
+                size += EventBatch.parcelSize(event);
+                if (size > EventBatch.MAX_PARCEL_SIZE)
+                {
+                    break;
+                }
+                before.add(event);
+                added = true;
+            }
+            if (moveToPosition(position + i))
+            {
+                Event event = event();
+                size += EventBatch.parcelSize(event);
+                if (size > EventBatch.MAX_PARCEL_SIZE)
+                {
+                    break;
+                }
+                after.add(event);
+                added = true;
+            }
+            if (!added)
+            {
+                break;
+            }
+        }
+        moveToPosition(oldPosition);
+
+        List<Event> events = new ArrayList<Event>(before.size() + after.size());
+        for (int i = before.size() - 1; i >= 0; --i)
+        {
+            events.add(before.get(i));
+        }
+        events.addAll(after);
+        return new EventBatch(events, before.size());
+    }
+
+
+    /**
+     * Returns the position of the first event that starts on or after the given day. This performs a binary search, so it relies on the events being sorted
+     * by start.
+     *
+     * @param day
+     *         The day, encoded like {@link EventRow#day}.
+     *
+     * @return The position of the event or {@link #getCount()} if all events start before that day.
+     */
+    public int positionOfDay(int day)
+    {
+        int low = 0;
+        int high = mDays.length;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (mDays[mid] < day)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Returns the start of the window of this cursor in milliseconds since the epoch.
+     */
+    public long windowStart()
+    {
+        return mWindowStart;
+    }
+
+
+    /**
+     * Returns the end of the window of this cursor in milliseconds since the epoch.
+     */
+    public long windowEnd()
+    {
+        return mWindowEnd;
+    }
+
+
+    /**
+     * Returns whether there are events that start before the window of this cursor.
+     */
+    public boolean hasEarlier()
+    {
+        return mHasEarlier;
+    }
+
+
+    /**
+     * Returns whether there are events that start after the window of this cursor.
+     */
+    public boolean hasLater()
+    {
+        return mHasLater;
+    }
+
+
+    @Override
+    public int getCount()
+    {
+        return mPositions.length;
+    }
+
+
+    @Override
+    public int getPosition()
+    {
+        return mPosition;
+    }
+
+
+    @Override
+    public boolean moveToPosition(int position)
+    {
+        int count = mPositions.length;
+        if (position < 0)
+        {
+            mPosition = -1;
+            getWrappedCursor().moveToPosition(-1);
+            return false;
+        }
+        if (position >= count)
+        {
+            mPosition = count;
+            getWrappedCursor().moveToPosition(-1);
+            return false;
+        }
+        mPosition = position;
+        return getWrappedCursor().moveToPosition(mPositions[position]);
+    }
+
+
+    @Override
+    public boolean move(int offset)
+    {
+        return moveToPosition(mPosition + offset);
+    }
+
+
+    @Override
+    public boolean moveToFirst()
+    {
+        return moveToPosition(0);
+    }
+
+
+    @Override
+    public boolean moveToLast()
+    {
+        return moveToPosition(mPositions.length - 1);
+    }
+
+
+    @Override
+    public boolean moveToNext()
+    {
+        return moveToPosition(mPosition + 1);
+    }
+
+
+    @Override
+    public boolean moveToPrevious()
+    {
+        return moveToPosition(mPosition - 1);
+    }
+
+
+    @Override
+    public boolean isFirst()
+    {
+        return mPositions.length > 0 && mPosition == 0;
+    }
+
+
+    @Override
+    public boolean isLast()
+    {
+        return mPositions.length > 0 && mPosition == mPositions.length - 1;
+    }
+
+
+    @Override
+    public boolean isBeforeFirst()
+    {
+        return mPositions.length == 0 || mPosition == -1;
+    }
+
+
+    @Override
+    public boolean isAfterLast()
+    {
+        return mPositions.length == 0 || mPosition == mPositions.length;
+    }
+}
@@ -19,6 +19,7 @@ package org.dmfs.webcal.adapters;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.graphics.drawable.Drawable;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -32,40 +33,131 @@ import org.dmfs.android.calendarcontent.provider.CalendarContentContract;
 import org.dmfs.android.calendarcontent.provider.CalendarContentContract.ContentItem;
 import org.dmfs.android.calendarcontent.provider.CalendarContentContract.SubscribedCalendars;
 import org.dmfs.webcal.R;
+import org.dmfs.webcal.utils.StarWriter;
 import org.dmfs.webcal.utils.TintedDrawable;
 import org.dmfs.webcal.utils.color.AccentColor;
 import org.dmfs.webcal.views.RemoteImageView;
 
-import androidx.cursoradapter.widget.CursorAdapter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
 
 
 /**
- * A {@link CursorAdapter} that is used for the page & calendar listings. This is also used for "my calendars", which makes it a bit awkward because this
- * section uses a different content URI with slightly different columns.
+ * A {@link RecyclerView.Adapter} that is used for the page & calendar listings. This is also used for "my calendars", which makes it a bit awkward because
+ * this section uses a different content URI with slightly different columns.
  * <p>
  * TOOD: find a generic way to handle the issue above.
  * </p>
+ * <p>
+ * The rows of a cursor are copied into immutable {@link Item}s, so the adapter doesn't depend on the life cycle of the cursor. When a new cursor is set,
+ * the differences to the current items are calculated on a background thread and only rows that actually changed are bound again.
+ * </p>
  *
  * @author Arjun Naik <arjun@arjunnaik.in>
  * @author Marten Gajda <marten@dmfs.org>
  */
-public class MixedNavigationAdapter extends CursorAdapter
+public class MixedNavigationAdapter extends RecyclerView.Adapter<MixedNavigationAdapter.ViewHolder>
 {
 
     public final static String[] PROJECTION = new String[] {
             CalendarContentContract.ContentItem._ID, CalendarContentContract.ContentItem.TITLE,
             CalendarContentContract.ContentItem.TYPE, CalendarContentContract.ContentItem.ICON_ID, ContentItem.SEASON, ContentItem.STARRED };
 
-    private LayoutInflater mInflater;
+    private final static int VIEW_TYPE_CALENDAR = 0;
+    private final static int VIEW_TYPE_PAGE = 1;
+
+    /**
+     * Compares {@link Item}s by their id and by all the values a row shows.
+     */
+    private final static DiffUtil.ItemCallback<Item> DIFF_CALLBACK = new DiffUtil.ItemCallback<Item>()
+    {
+        @Override
+        public boolean areItemsTheSame(Item oldItem, Item newItem)
+        {
+            return oldItem.id == newItem.id;
+        }
+
+
+        @Override
+        public boolean areContentsTheSame(Item oldItem, Item newItem)
+        {
+            return oldItem.equals(newItem);
+        }
+    };
+
+    /**
+     * A listener that's notified when an item has been clicked.
+     */
+    public interface OnItemClickListener
+    {
+        /**
+         * Called when the given item has been clicked.
+         *
+         * @param item
+         *         The {@link Item} that has been clicked.
+         */
+        public void onItemClick(Item item);
+    }
+
+
+    private final Context mContext;
+    private final LayoutInflater mInflater;
     private boolean mShowMissingIcons = false;
     private final boolean mShowStars;
+    private OnItemClickListener mClickListener;
+
+    /**
+     * Calculates the differences between the current and a new list of items on a background thread.
+     */
+    private final AsyncListDiffer<Item> mDiffer = new AsyncListDiffer<Item>(this, DIFF_CALLBACK);
+
+    /**
+     * The state of the tinted star drawable. All star check boxes get a drawable from this state, so it's tinted only once.
+     */
+    private Drawable.ConstantState mStarDrawableState;
 
+    /**
+     * The listener of all star check boxes. It takes the id of the item from the {@link ViewHolder} in the tag of the check box. The check box already shows
+     * the new state, the {@link StarWriter} writes it in the background.
+     */
+    private final OnCheckedChangeListener mStarListener = new OnCheckedChangeListener()
+    {
+        @Override
+        public void onCheckedChanged(CompoundButton buttonView, boolean isChecked)
+        {
+            Item item = ((ViewHolder) buttonView.getTag()).item;
+            StarWriter.INSTANCE.setStarred(mContext, item.id, item.starred, isChecked);
+        }
+    };
 
-    public MixedNavigationAdapter(Context context, Cursor c, int flags, boolean showStars)
+    /**
+     * The listener of all rows. It takes the item from the {@link ViewHolder} in the tag of the row.
+     */
+    private final View.OnClickListener mRowListener = new View.OnClickListener()
     {
-        super(context, c, flags);
-        mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        @Override
+        public void onClick(View view)
+        {
+            Item item = ((ViewHolder) view.getTag()).item;
+            if (mClickListener != null && item != null)
+            {
+                mClickListener.onItemClick(item);
+            }
+        }
+    };
+
+
+    public MixedNavigationAdapter(Context context, boolean showStars)
+    {
+        mContext = context.getApplicationContext();
+        mInflater = LayoutInflater.from(context);
         mShowStars = showStars;
+        setHasStableIds(true);
     }
 
 
@@ -75,129 +167,238 @@ public class MixedNavigationAdapter extends CursorAdapter
     }
 
 
+    public void setOnItemClickListener(OnItemClickListener listener)
+    {
+        mClickListener = listener;
+    }
+
+
+    /**
+     * Show the items of the given {@link Cursor}. The cursor is read right away and not retained, the caller still owns it.
+     *
+     * @param cursor
+     *         A {@link Cursor} or <code>null</code> to remove all items.
+     */
+    public void setCursor(Cursor cursor)
+    {
+        mDiffer.submitList(cursor == null ? null : items(cursor));
+    }
+
+
     @Override
-    public int getViewTypeCount()
+    public int getItemCount()
     {
-        return 2;
+        return mDiffer.getCurrentList().size();
+    }
+
+
+    /**
+     * Returns the id of the item at the given position. For synced calendars that's the id of the calendar item, not the id of the subscription, so the id of
+     * a calendar is the same in all lists.
+     */
+    @Override
+    public long getItemId(int position)
+    {
+        return mDiffer.getCurrentList().get(position).id;
     }
 
 
     @Override
     public int getItemViewType(int position)
     {
-        Cursor cursor = (Cursor) getItem(position);
-        if (cursor != null)
+        return ContentItem.TYPE_PAGE.equals(mDiffer.getCurrentList().get(position).type) ? VIEW_TYPE_PAGE : VIEW_TYPE_CALENDAR;
+    }
+
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType)
+    {
+        boolean page = viewType == VIEW_TYPE_PAGE;
+        View view = mInflater.inflate(page ? R.layout.page_entry_item : R.layout.calendar_entry_item, parent, false);
+
+        ViewHolder holder = new ViewHolder(view);
+        if (page)
+        {
+            // the titles of pages scroll if they are too long
+            holder.title.setSelected(true);
+        }
+        if (holder.starred != null)
+        {
+            holder.starred.setTag(holder);
+            if (mShowStars)
+            {
+                holder.starred.setButtonDrawable(starDrawable(parent.getContext()));
+            }
+        }
+        view.setTag(holder);
+        view.setOnClickListener(mRowListener);
+        return holder;
+    }
+
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position)
+    {
+        Item item = mDiffer.getCurrentList().get(position);
+        holder.item = item;
+
+        holder.title.setText(item.title);
+        holder.subtitle.setText(TextUtils.isEmpty(item.season) ? null : mContext.getString(R.string.season, item.season));
+        holder.icon.setRemoteSource(item.iconId, mShowMissingIcons);
+
+        if (holder.starred != null)
         {
-            if (CalendarContentContract.ContentItem.TYPE_CALENDAR.equals(cursor.getString(2)))
+            if (mShowStars)
             {
-                return 0;
+                holder.starred.setVisibility(View.VISIBLE);
+                // remove the listener while we update the state, we don't want to write the current value back
+                holder.starred.setOnCheckedChangeListener(null);
+                holder.starred.setChecked(StarWriter.INSTANCE.isStarred(item.id, item.starred));
+                holder.starred.setOnCheckedChangeListener(mStarListener);
             }
             else
             {
-                return 1;
+                holder.starred.setVisibility(View.GONE);
             }
         }
-        return 0;
     }
 
 
-    @Override
-    public void bindView(View view, final Context context, final Cursor cursor)
-    {
-        final long id = cursor.getLong(cursor.getColumnIndex(SubscribedCalendars.ITEM_ID) >= 0 ? cursor.getColumnIndex(SubscribedCalendars.ITEM_ID) : cursor
-                .getColumnIndex(ContentItem._ID));
-        String itemType = cursor.getString(2);
-        String season = cursor.getString(4);
-        long img = cursor.getLong(3);
-        if (CalendarContentContract.ContentItem.TYPE_PAGE.equals(itemType))
+    /**
+     * Returns a new instance of the tinted star drawable. The drawable is tinted once, all instances share its state.
+     */
+    private Drawable starDrawable(Context context)
+    {
+        if (mStarDrawableState == null)
         {
-            TextView title = (TextView) view.findViewById(android.R.id.title);
-            TextView subtitle = (TextView) view.findViewById(android.R.id.text1);
-            title.setText(cursor.getString(1));
-            subtitle.setText(TextUtils.isEmpty(season) ? null : context.getString(R.string.season, season));
-            title.setSelected(true);
-            RemoteImageView icon = (RemoteImageView) view.findViewById(android.R.id.icon);
-            icon.setRemoteSource(img, mShowMissingIcons);
+            Drawable drawable = new TintedDrawable(context, R.drawable.star_selector, new AccentColor(context)).value();
+            mStarDrawableState = drawable.getConstantState();
+            if (mStarDrawableState == null)
+            {
+                // the drawable can't be shared
+                return drawable;
+            }
         }
-        else
+        return mStarDrawableState.newDrawable(context.getResources());
+    }
+
+
+    /**
+     * Copies the rows of the given cursor into a list of {@link Item}s. "My calendars" uses slightly different columns than the other lists. The position of
+     * the cursor is restored afterwards.
+     */
+    private static List<Item> items(Cursor cursor)
+    {
+        int itemIdColumn = cursor.getColumnIndex(SubscribedCalendars.ITEM_ID);
+        int rowIdColumn = cursor.getColumnIndex(ContentItem._ID);
+        int idColumn = itemIdColumn >= 0 ? itemIdColumn : rowIdColumn;
+        // the title is always the second column, but its name depends on the list
+        int titleColumn = 1;
+        int typeColumn = cursor.getColumnIndex(ContentItem.TYPE);
+        int iconColumn = cursor.getColumnIndex(ContentItem.ICON_ID);
+        int seasonColumn = cursor.getColumnIndex(ContentItem.SEASON);
+        int starredColumn = cursor.getColumnIndex(ContentItem.STARRED);
+
+        int position = cursor.getPosition();
+        List<Item> result = new ArrayList<Item>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext())
         {
-            TextView title = (TextView) view.findViewById(android.R.id.title);
-            TextView subtitle = (TextView) view.findViewById(android.R.id.text1);
-            RemoteImageView image = (RemoteImageView) view.findViewById(android.R.id.icon);
-            subtitle.setText(TextUtils.isEmpty(season) ? null : context.getString(R.string.season, season));
-            title.setText(cursor.getString(1));
-            image.setRemoteSource(img, mShowMissingIcons);
+            result.add(new Item(cursor.getLong(rowIdColumn), cursor.getLong(idColumn), cursor.getString(titleColumn), cursor.getString(typeColumn),
+                    cursor.getLong(iconColumn), cursor.getString(seasonColumn), cursor.getInt(starredColumn) > 0));
         }
+        cursor.moveToPosition(position);
+        // the differ compares lists on a background thread, so they must not change afterwards
+        return Collections.unmodifiableList(result);
+    }
+
+
+    /**
+     * The values of a row. Two items are equal if they show the same.
+     */
+    public final static class Item
+    {
+        /**
+         * The id of the row.
+         */
+        public final long rowId;
+
+        /**
+         * The id of the item. For synced calendars that's the id of the calendar item, otherwise it's the same as {@link #rowId}.
+         */
+        public final long id;
+
+        public final String title;
+        public final String type;
+        public final long iconId;
+        public final String season;
 
-        TextView status = (TextView) view.findViewById(android.R.id.text2);
-        // if (status != null)
-        // {
-        // if (!TextUtils.isEmpty(cursor.getString(4)) || !TextUtils.isEmpty(cursor.getString(8)))
-        // {
-        // status.setText(R.string.status_unlocked);
-        // }
-        // else if (TextUtils.isEmpty(cursor.getString(6)) && !CalendarContentContract.ContentItem.TYPE_PAGE.equals(itemType))
-        // {
-        // status.setText(R.string.status_free);
-        // }
-        // else if ("".equals(cursor.getString(5)))
-        // {
-        // status.setText(R.string.status_free);
-        // }
-        // else if (cursor.getLong(7) > System.currentTimeMillis())
-        // {
-        // status.setText(R.string.status_free_trial);
-        // }
-        // else
-        // {
-        // status.setText("");
-        // TextView price = (TextView) view.findViewById(R.id.content_item_price);
-        // if (price != null && price.getVisibility() == View.VISIBLE)
-        // {
-        // price.setText(cursor.getString(9));
-        // }
-        // }
-        // }
-
-        CheckBox starred = (CheckBox) view.findViewById(R.id.menu_starred);
-        if (starred != null)
+        /**
+         * The starred state as stored in the provider.
+         */
+        public final boolean starred;
+
+
+        public Item(long rowId, long id, String title, String type, long iconId, String season, boolean starred)
         {
-            if (mShowStars)
+            this.rowId = rowId;
+            this.id = id;
+            this.title = title;
+            this.type = type;
+            this.iconId = iconId;
+            this.season = season;
+            this.starred = starred;
+        }
+
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
             {
-                starred.setVisibility(View.VISIBLE);
-                starred.setOnCheckedChangeListener(null);
-                starred.setChecked(cursor.getInt(5) > 0);
-                starred.setButtonDrawable(new TintedDrawable(context, R.drawable.star_selector, new AccentColor(context)).value());
-                starred.setOnCheckedChangeListener(new OnCheckedChangeListener()
-                {
-
-                    @Override
-                    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked)
-                    {
-                        ContentItem.setStarred(context, id, isChecked);
-                    }
-                });
+                return true;
             }
-            else
+            if (!(o instanceof Item))
             {
-                starred.setVisibility(View.GONE);
+                return false;
             }
+            Item other = (Item) o;
+            return rowId == other.rowId && id == other.id && iconId == other.iconId && starred == other.starred && TextUtils.equals(title, other.title)
+                    && TextUtils.equals(type, other.type) && TextUtils.equals(season, other.season);
+        }
 
+
+        @Override
+        public int hashCode()
+        {
+            return (int) (id ^ (id >>> 32)) * 31 + (title == null ? 0 : title.hashCode());
         }
     }
 
 
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup vg)
+    /**
+     * Holds the views of a row.
+     */
+    public final static class ViewHolder extends RecyclerView.ViewHolder
     {
-        String itemType = cursor.getString(2);
-        if (CalendarContentContract.ContentItem.TYPE_PAGE.equals(itemType))
-        {
-            return mInflater.inflate(R.layout.page_entry_item, vg, false);
-        }
-        else
+        public final TextView title;
+        public final TextView subtitle;
+        public final RemoteImageView icon;
+        public final CheckBox starred;
+
+        /**
+         * The item this row shows.
+         */
+        Item item;
+
+
+        public ViewHolder(View view)
         {
-            return mInflater.inflate(R.layout.calendar_entry_item, vg, false);
+            super(view);
+            this.title = (TextView) view.findViewById(android.R.id.title);
+            this.subtitle = (TextView) view.findViewById(android.R.id.text1);
+            this.icon = (RemoteImageView) view.findViewById(android.R.id.icon);
+            this.starred = (CheckBox) view.findViewById(R.id.menu_starred);
         }
     }
-};
+}
@@ -28,8 +28,7 @@ import android.widget.FrameLayout;
 import android.widget.ListAdapter;
 import android.widget.TextView;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import androidx.cursoradapter.widget.CursorAdapter;
 
@@ -38,15 +37,25 @@ import androidx.cursoradapter.widget.CursorAdapter;
  * A wrapper for a {@link ListAdapter} that adds section titles. When you instantiate this wrapper you need to provide the wrapped {@link ListAdapter} and a
  * {@link SectionIndexer} to identify the sections.
  * <p>
- * TODO: at present this class indexes all elements of the wrapped adapter, which might take some time. We probably can improve that by indexing the elements
- * lazily (when they are accessed).
+ * The index is kept in primitive arrays. When the wrapped adapter changes, only the part of the index following the first element with a different section is
+ * rebuilt. Note that the {@link SectionIndexer} is still called for every element on each change, since the number of section headers is needed to know the
+ * number of elements, so it should return quickly.
+ * </p>
+ * <p>
+ * Section titles are retrieved once per section while the index is built. Empty section titles have their own view type, so their views are recycled like
+ * any other view.
+ * </p>
+ * <p>
+ * If the wrapped adapter is a {@link CursorAdapter} with an {@link IndexedCursor}, the index of the cursor is used instead, so the index can be built off the
+ * main thread.
  * </p>
  *
  * @author Marten Gajda <marten@dmfs.org>
  */
 /*
- * Implementation detail: This adapter builds own ids for each element. The ids are made up by the section index and the original position of the elements. That
- * implies that the ids are not stable, but we can identify the elements quickly without maintaining another index.
+ * Implementation detail: This adapter builds own packed ids for each element. The packed ids are made up by the section index and the original position of the
+ * elements. That implies that they are not stable, but we can identify the elements quickly without maintaining another index. If the wrapped adapter has stable
+ * ids, those are returned by getItemId instead, so the list can keep its scroll position and its views when the data changes.
  */
 public class SectionTitlesAdapter implements ListAdapter
 {
@@ -83,10 +92,108 @@ public class SectionTitlesAdapter implements ListAdapter
     }
 
 
+    /**
+     * An interface for cursors that come with a prebuilt {@link Index}. If the cursor of a wrapped {@link CursorAdapter} implements this, the adapter takes
+     * the index from the cursor instead of calling the {@link SectionIndexer} for every element on the main thread.
+     */
+    public interface IndexedCursor
+    {
+        /**
+         * Returns the section index of this cursor.
+         *
+         * @return The {@link Index}.
+         */
+        public Index sectionIndex();
+    }
+
+
+    /**
+     * A complete section index, meant to be built in the background, e.g. by the loader that loads the elements. Instances are immutable.
+     */
+    public final static class Index
+    {
+        private final long[] mIndex;
+        private final String[] mTitles;
+        private final int[] mItemSections;
+        private final int[] mItemPositions;
+
+
+        /**
+         * Build the index of the given sections. A section header is inserted every time the section changes.
+         *
+         * @param sections
+         *         The section index of each element.
+         * @param titles
+         *         The section titles, only the entries of the elements that start a new section are used.
+         */
+        public Index(int[] sections, String[] titles)
+        {
+            int count = sections.length;
+            int headers = 0;
+            for (int i = 0; i < count; ++i)
+            {
+                if (i == 0 || sections[i] != sections[i - 1])
+                {
+                    ++headers;
+                }
+            }
+
+            long[] index = new long[count + headers];
+            String[] indexTitles = new String[count + headers];
+            int[] positions = new int[count];
+            int size = 0;
+            for (int i = 0; i < count; ++i)
+            {
+                int groupIndex = sections[i];
+                if (i == 0 || groupIndex != sections[i - 1])
+                {
+                    indexTitles[size] = titles[i];
+                    index[size++] = packedId(groupIndex, HEADER_ID);
+                }
+                positions[i] = size;
+                index[size++] = packedId(groupIndex, i);
+            }
+
+            mIndex = index;
+            mTitles = indexTitles;
+            mItemSections = sections.clone();
+            mItemPositions = positions;
+        }
+    }
+
+
     private final ListAdapter mAdaptedAdapter;
     private final SectionIndexer mIndexer;
     private final int mSectionHeaderViewId;
-    private List<Long> mIndex = new ArrayList<Long>(64);
+    /**
+     * The packed ids of all elements, including the section headers.
+     */
+    private long[] mIndex = new long[64];
+
+    /**
+     * The titles of the section headers in {@link #mIndex}. Entries of other elements are <code>null</code>.
+     */
+    private String[] mTitles = new String[64];
+
+    /**
+     * The number of valid entries in {@link #mIndex}.
+     */
+    private int mIndexSize;
+
+    /**
+     * The section index of each element of the wrapped adapter.
+     */
+    private int[] mItemSections = new int[0];
+
+    /**
+     * The position in {@link #mIndex} of each element of the wrapped adapter.
+     */
+    private int[] mItemPositions = new int[0];
+
+    /**
+     * Whether the arrays above have been taken from an {@link Index}, in which case they must not be modified.
+     */
+    private boolean mPrebuilt;
     private LayoutInflater mInflater;
     private boolean mHideEmptySectionTitle = true;
 
@@ -156,14 +263,14 @@ public class SectionTitlesAdapter implements ListAdapter
     @Override
     public int getCount()
     {
-        return mIndex.size();
+        return mIndexSize;
     }
 
 
     @Override
     public Object getItem(int position)
     {
-        int itemPos = itemPos(mIndex.get(position));
+        int itemPos = itemPos(mIndex[position]);
         if (itemPos == HEADER_ID)
         {
             // TODO: return an object that represents the section header
@@ -176,22 +283,48 @@ public class SectionTitlesAdapter implements ListAdapter
     }
 
 
+    /**
+     * Returns the id of the element at the given position. If the wrapped adapter has stable ids, this returns the id of the wrapped element or a negative
+     * id derived from the section for section headers. Otherwise it returns the packed id of the element.
+     */
     @Override
     public long getItemId(int position)
     {
-        return mIndex.get(position);
+        long packedId = mIndex[position];
+        if (!mAdaptedAdapter.hasStableIds())
+        {
+            return packedId;
+        }
+
+        int itemPos = itemPos(packedId);
+        // section headers get negative ids, so they don't clash with the ids of the wrapped adapter, which are expected to be non-negative
+        return itemPos == HEADER_ID ? -1 - sectionId(packedId) : mAdaptedAdapter.getItemId(itemPos);
+    }
+
+
+    /**
+     * Returns the packed id of the element at the given position. Use {@link #sectionId(long)} and {@link #itemPos(long)} to decode it.
+     *
+     * @param position
+     *         The position of the element.
+     *
+     * @return The packed id.
+     */
+    public long getPackedId(int position)
+    {
+        return mIndex[position];
     }
 
 
     @Override
     public int getItemViewType(int position)
     {
-        long packedId = getItemId(position);
-        int itemPos = itemPos(packedId);
+        int itemPos = itemPos(mIndex[position]);
 
         if (itemPos == HEADER_ID)
         {
-            return mAdaptedAdapter.getViewTypeCount();
+            // empty headers have their own view type, so we don't have to check the type of the convertView
+            return isHiddenTitle(mTitles[position]) ? mAdaptedAdapter.getViewTypeCount() + 1 : mAdaptedAdapter.getViewTypeCount();
         }
         else
         {
@@ -203,28 +336,26 @@ public class SectionTitlesAdapter implements ListAdapter
     @Override
     public View getView(int position, View convertView, ViewGroup parent)
     {
-        int itemPos = itemPos(mIndex.get(position));
+        int itemPos = itemPos(mIndex[position]);
 
         if (itemPos == HEADER_ID)
         {
-            String title = mIndexer.getSectionTitle((int) sectionId(mIndex.get(position)));
-
             // this is a section header
-            if (convertView == null || convertView instanceof FrameLayout && !TextUtils.isEmpty(title))
-            {
-                convertView = mInflater.inflate(mSectionHeaderViewId, parent, false);
-            }
+            String title = mTitles[position];
 
-            if (mHideEmptySectionTitle && TextUtils.isEmpty(title))
+            if (isHiddenTitle(title))
             {
                 // setting visibility of convertView doesn't work, we need to return an empty view
-                return new FrameLayout(mInflater.getContext());
+                return convertView != null ? convertView : new FrameLayout(mInflater.getContext());
             }
-            else
+
+            if (convertView == null)
             {
-                ((TextView) convertView.findViewById(android.R.id.title)).setText(title);
-                return convertView;
+                convertView = mInflater.inflate(mSectionHeaderViewId, parent, false);
+                convertView.setTag(convertView.findViewById(android.R.id.title));
             }
+            ((TextView) convertView.getTag()).setText(title);
+            return convertView;
         }
         else
         {
@@ -237,16 +368,16 @@ public class SectionTitlesAdapter implements ListAdapter
     @Override
     public int getViewTypeCount()
     {
-        // we inject one more view type
-        return mAdaptedAdapter.getViewTypeCount() + 1;
+        // we inject two more view types, one for section headers and one for empty section headers
+        return mAdaptedAdapter.getViewTypeCount() + 2;
     }
 
 
     @Override
     public boolean hasStableIds()
     {
-        // we don't have stable ids because the ids encode the position of the item in the wrapped adapter.
-        return false;
+        // our packed ids are not stable, because they encode the position of the item in the wrapped adapter, so we rely on the wrapped adapter
+        return mAdaptedAdapter.hasStableIds();
     }
 
 
@@ -283,12 +414,30 @@ public class SectionTitlesAdapter implements ListAdapter
     public boolean isEnabled(int pos)
     {
         // just forward the request if the item is not a header. Headers are always disabled.
-        long packedId = getItemId(pos);
-        int itemPos = itemPos(packedId);
+        int itemPos = itemPos(mIndex[pos]);
         return itemPos != HEADER_ID && mAdaptedAdapter.isEnabled(itemPos);
     }
 
 
+    /**
+     * Returns the position of the header of the section that contains the given element of the wrapped adapter.
+     *
+     * @param itemPos
+     *         The position of the element in the wrapped adapter.
+     *
+     * @return The position of the section header in this adapter.
+     */
+    public int getSectionHeaderPosition(int itemPos)
+    {
+        int position = mItemPositions[itemPos];
+        while (position > 0 && itemPos(mIndex[position]) != HEADER_ID)
+        {
+            --position;
+        }
+        return position;
+    }
+
+
     /**
      * Replace the current cursor of the wrapped adapter. This has no effect if the wrapped adapter is not a {@link CursorAdapter}.
      *
@@ -307,22 +456,94 @@ public class SectionTitlesAdapter implements ListAdapter
     /**
      * Build the index. This adds one entry for each element of the wrapped adapter. It also inserts a section header every time the {@link SectionIndexer}
      * returns a new section value.
+     * <p>
+     * The index of all elements up to the first element that has a different section than before is kept, only the remainder is rebuilt. If the cursor of
+     * the wrapped adapter is an {@link IndexedCursor}, its index is used as is.
+     * </p>
      */
     private void buildIndex()
     {
-        mIndex.clear();
-        int oldGroupIndex = Integer.MAX_VALUE;
-        for (int i = 0, count = mAdaptedAdapter.getCount(); i < count; ++i)
+        Cursor cursor = mAdaptedAdapter instanceof CursorAdapter ? ((CursorAdapter) mAdaptedAdapter).getCursor() : null;
+        if (cursor instanceof IndexedCursor)
+        {
+            Index index = ((IndexedCursor) cursor).sectionIndex();
+            mIndex = index.mIndex;
+            mTitles = index.mTitles;
+            mIndexSize = index.mIndex.length;
+            mItemSections = index.mItemSections;
+            mItemPositions = index.mItemPositions;
+            mPrebuilt = true;
+            return;
+        }
+
+        if (mPrebuilt)
+        {
+            // the arrays belong to the index of another cursor, start over with arrays of our own
+            mIndex = new long[64];
+            mTitles = new String[64];
+            mIndexSize = 0;
+            mItemSections = new int[0];
+            mItemPositions = new int[0];
+            mPrebuilt = false;
+        }
+
+        int count = mAdaptedAdapter.getCount();
+        int[] sections = new int[count];
+        for (int i = 0; i < count; ++i)
         {
-            int groupIndex = mIndexer.getSectionIndex(mAdaptedAdapter.getItem(i));
+            sections[i] = mIndexer.getSectionIndex(mAdaptedAdapter.getItem(i));
+        }
+
+        // find the first element that's been moved to another section
+        int oldCount = mItemSections.length;
+        int firstChange = 0;
+        while (firstChange < count && firstChange < oldCount && sections[firstChange] == mItemSections[firstChange])
+        {
+            ++firstChange;
+        }
+
+        int[] positions = Arrays.copyOf(mItemPositions, count);
+        // keep everything up to and including the last unchanged element
+        mIndexSize = firstChange == 0 ? 0 : positions[firstChange - 1] + 1;
+        int oldGroupIndex = firstChange == 0 ? Integer.MAX_VALUE : sections[firstChange - 1];
+        for (int i = firstChange; i < count; ++i)
+        {
+            int groupIndex = sections[i];
             if (groupIndex != oldGroupIndex)
             {
                 // we have a new group, add a header
-                mIndex.add(packedId(groupIndex, HEADER_ID));
+                append(packedId(groupIndex, HEADER_ID), mIndexer.getSectionTitle(groupIndex));
                 oldGroupIndex = groupIndex;
             }
-            mIndex.add(packedId(groupIndex, i));
+            positions[i] = mIndexSize;
+            append(packedId(groupIndex, i), null);
         }
+
+        mItemSections = sections;
+        mItemPositions = positions;
     }
 
+
+    /**
+     * Append an entry to the index, growing it if necessary.
+     */
+    private void append(long packedId, String title)
+    {
+        if (mIndexSize == mIndex.length)
+        {
+            mIndex = Arrays.copyOf(mIndex, mIndexSize * 2);
+            mTitles = Arrays.copyOf(mTitles, mIndexSize * 2);
+        }
+        mTitles[mIndexSize] = title;
+        mIndex[mIndexSize++] = packedId;
+    }
+
+
+    /**
+     * Returns whether a section header with the given title is rendered as an empty view.
+     */
+    private boolean isHiddenTitle(String title)
+    {
+        return mHideEmptySectionTitle && TextUtils.isEmpty(title);
+    }
 }
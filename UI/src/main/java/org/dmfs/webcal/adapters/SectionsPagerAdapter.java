@@ -109,6 +109,24 @@ public class SectionsPagerAdapter extends FragmentStatePagerAdapter
     }
 
 
+    /**
+     * Returns the id of the section at the given position.
+     *
+     * @param position
+     *         The position of the section.
+     *
+     * @return The id of the section or <code>-1</code> if there is no section at this position.
+     */
+    public long getSectionId(int position)
+    {
+        if (mSectionsCursor != null && mSectionsCursor.moveToPosition(position))
+        {
+            return mSectionsCursor.getLong(0);
+        }
+        return -1;
+    }
+
+
     /**
      * Replace the current cursor with a new one and update the pages.
      *
@@ -34,6 +34,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ListView;
@@ -57,18 +58,19 @@ import org.dmfs.rfc5545.DateTime;
 import org.dmfs.webcal.EventsPreviewActivity;
 import org.dmfs.webcal.R;
 import org.dmfs.webcal.adapters.EventListAdapter;
+import org.dmfs.webcal.adapters.EventRowCursor;
 import org.dmfs.webcal.adapters.SectionTitlesAdapter;
 import org.dmfs.webcal.adapters.SectionTitlesAdapter.SectionIndexer;
 import org.dmfs.webcal.fragments.CalendarTitleFragment.SwitchStatusListener;
 import org.dmfs.webcal.utils.AppSettingsIntent;
-import org.dmfs.webcal.utils.Event;
+import org.dmfs.webcal.utils.DateFormatCache;
 import org.dmfs.webcal.utils.ProtectedBackgroundJob;
+import org.dmfs.webcal.utils.StarWriter;
 import org.dmfs.webcal.utils.TintedDrawable;
 import org.dmfs.webcal.utils.color.ResourceColor;
 
 import java.net.URI;
 import java.util.List;
-import java.util.TimeZone;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -101,6 +103,26 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
     private static final String ARG_TITLE = "title";
     private static final String ARG_ICON = "icon";
 
+    /**
+     * The time span before now of the events that are loaded initially.
+     */
+    private final static long PREVIEW_WINDOW_PAST = 14 * DateUtils.DAY_IN_MILLIS;
+
+    /**
+     * The time span after now of the events that are loaded initially.
+     */
+    private final static long PREVIEW_WINDOW_FUTURE = 60 * DateUtils.DAY_IN_MILLIS;
+
+    /**
+     * The window of loaded events is extended once the user scrolls closer than this number of rows to either end of the list.
+     */
+    private final static int PREVIEW_EXTEND_THRESHOLD = 5;
+
+    /**
+     * The maximum number of events before and after the selected event to pass to the {@link EventsPreviewActivity}.
+     */
+    private final static int PREVIEW_NEIGHBOURS = 25;
+
     private static final int LOADER_CALENDAR_ITEM = 24234;
     private static final int LOADER_SUBSCRIBED_CALENDAR = LOADER_CALENDAR_ITEM + 1;
     private static final int LOADER_SUBSCRIPTION = LOADER_CALENDAR_ITEM + 2;
@@ -254,13 +276,14 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
                     // TODO: not a valid URI, we shouldn't continue
                 }
 
-                mStarred = cursor.getInt(COLUMNS.STARRED) > 0;
+                boolean storedStarred = cursor.getInt(COLUMNS.STARRED) > 0;
+                mStarred = StarWriter.INSTANCE.isStarred(mId, storedStarred);
 
                 // update the UI
                 mTitleFragment.setTitle(mCalendarName);
                 mTitleFragment.setIcon(mIcon);
                 mTitleFragment.setId(mId);
-                mTitleFragment.setStarred(mStarred);
+                mTitleFragment.setStarred(mStarred, storedStarred);
 
                 // update action bar
                 if (mActionBar != null)
@@ -278,6 +301,26 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
     };
     private SectionTitlesAdapter mSectionAdapter;
     private ListView mListView;
+    /**
+     * Whether the window of the events preview is being extended.
+     */
+    private boolean mExtendingPreview;
+    /**
+     * The events preview as delivered by the loader. The adapter may show a widened copy of it, which the loader doesn't know about.
+     */
+    private Cursor mPreviewCursor;
+
+    /**
+     * Whether the window of the events preview has been extended into the past the last time. If the user can reach both ends of the list, the window is
+     * extended in alternating directions.
+     */
+    private boolean mExtendedEarlier;
+
+    /**
+     * The window of the events preview. Both values are <code>0</code> until the first window has been set up.
+     */
+    private long mPreviewWindowStart;
+    private long mPreviewWindowEnd;
     /**
      * This {@link Transition} is fired after {@link #mPaymentStatusUpdated} and {@link #mSubscriptionLoaded} are fired.
      */
@@ -359,6 +402,21 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
 
         mListView.addHeaderView(progressView);
         mListView.setOnItemClickListener(this);
+        mListView.setOnScrollListener(new AbsListView.OnScrollListener()
+        {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState)
+            {
+                // nothing to do
+            }
+
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount)
+            {
+                extendPreviewWindow(firstVisibleItem, visibleItemCount, totalItemCount);
+            }
+        });
         mListView.setHeaderDividersEnabled(false);
         mListAdapter = new EventListAdapter(inflater.getContext(), null);
         mListView.setAdapter(mSectionAdapter = new SectionTitlesAdapter(inflater.getContext(), mListAdapter, new SectionIndexer()
@@ -367,19 +425,22 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
             @Override
             public String getSectionTitle(int index)
             {
-                DateTime start = new DateTime(TimeZone.getDefault(), (index >> 16) & 0x0ffff, (index >> 8) & 0x00ff, index & 0x00ff, 0, 0, 0);
-
-                return DateUtils.formatDateTime(getActivity(), start.getTimestamp(),
-                        DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_YEAR | DateUtils.FORMAT_SHOW_WEEKDAY | DateUtils.FORMAT_ABBREV_WEEKDAY);
+                return DateFormatCache.INSTANCE.dayTitle(getActivity(), index);
             }
 
 
             @Override
             public int getSectionIndex(Object object)
             {
+                if (object instanceof EventRowCursor)
+                {
+                    // the day has been computed in the background already
+                    return ((EventRowCursor) object).row().day;
+                }
+
                 Cursor cursor = (Cursor) object;
 
-                DateTime start = new DateTime(TimeZone.getTimeZone(cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.TIMZONE))),
+                DateTime start = new DateTime(DateFormatCache.INSTANCE.timeZone(cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.TIMZONE))),
                         cursor.getLong(cursor.getColumnIndex(WebCalReaderContract.Events.DTSTART)));
                 // we return an encoded date as index
                 return (start.getYear() << 16) + (start.getMonth() << 8) + start.getDayOfMonth();
@@ -478,14 +539,23 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
                         SubscribedCalendars.ITEM_ID + "=" + ContentUris.parseId(mContentUri), null, null);
 
             case LOADER_PREVIEW:
-                // show the loader indicator delayed
-                mHandler.postDelayed(mProgressIndicator, PROGRESS_INDICATOR_DELAY);
+                if (mPreviewWindowStart == 0 && mPreviewWindowEnd == 0)
+                {
+                    long now = System.currentTimeMillis();
+                    mPreviewWindowStart = now - PREVIEW_WINDOW_PAST;
+                    mPreviewWindowEnd = now + PREVIEW_WINDOW_FUTURE;
+                }
+                if (mListAdapter.getCursor() == null)
+                {
+                    // show the loader indicator delayed
+                    mHandler.postDelayed(mProgressIndicator, PROGRESS_INDICATOR_DELAY);
+                }
                 if (mCalendarUrl != null)
                 {
-                    return new CursorLoader(getActivity(),
-                            WebCalReaderContract.Events.getEventsUri(getActivity(), mCalendarUrl, 60 * 1000, new BasicHeader("X-Context", "preview")), null,
-                            null,
-                            null, null);
+                    // a reload keeps the window the user has scrolled to
+                    return new PreviewLoader(getActivity(),
+                            WebCalReaderContract.Events.getEventsUri(getActivity(), mCalendarUrl, 60 * 1000, new BasicHeader("X-Context", "preview")),
+                            mPreviewWindowStart, mPreviewWindowEnd);
                 }
                 else
                 {
@@ -529,10 +599,17 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
                 });
                 break;
             case LOADER_PREVIEW:
-                if (cursor != null && cursor.getCount() > 0)
+                if (cursor instanceof EventRowCursor)
                 {
-                    mHandler.removeCallbacks(mProgressIndicator);
-                    mProgressBar.setVisibility(View.GONE);
+                    EventRowCursor events = (EventRowCursor) cursor;
+                    mPreviewWindowStart = events.windowStart();
+                    mPreviewWindowEnd = events.windowEnd();
+                    if (events.getCount() > 0 || events.hasEarlier() || events.hasLater())
+                    {
+                        // the feed has been loaded, even if there are no events in the window
+                        mHandler.removeCallbacks(mProgressIndicator);
+                        mProgressBar.setVisibility(View.GONE);
+                    }
                 }
 
                 if (cursor == null)
@@ -544,6 +621,12 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
                     return;
                 }
                 Cursor oldCursor = mListAdapter.swapCursor(cursor);
+                if (oldCursor != null && oldCursor != mPreviewCursor)
+                {
+                    // a widened copy of the previous result, the loader only closes the results it delivered
+                    oldCursor.close();
+                }
+                mPreviewCursor = cursor;
 
                 // this appears to be necessary for some reason, even though the adapter should know that the data set has changed
                 mListAdapter.notifyDataSetChanged();
@@ -552,6 +635,9 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
                 {
                     goToToday();
                 }
+
+                // an empty or short window doesn't let the user scroll, so check right away if it needs to grow
+                extendPreviewWindow(mListView.getFirstVisiblePosition(), mListView.getChildCount(), mListView.getCount());
                 break;
 
             case LOADER_SUBSCRIPTION:
@@ -569,16 +655,119 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
     }
 
 
+    /**
+     * Extends the window of the loaded events if the user has scrolled close to either end of the list and there are more events in that direction. The
+     * window grows by its current size, so long feeds are covered in a few steps. The events are not queried again, the window is widened over the events
+     * that have been loaded already.
+     */
+    private void extendPreviewWindow(int firstVisibleItem, int visibleItemCount, int totalItemCount)
+    {
+        Cursor cursor = mListAdapter == null ? null : mListAdapter.getCursor();
+        if (mExtendingPreview || !(cursor instanceof EventRowCursor))
+        {
+            return;
+        }
+
+        final EventRowCursor events = (EventRowCursor) cursor;
+        boolean extendEarlier = firstVisibleItem <= PREVIEW_EXTEND_THRESHOLD && events.hasEarlier();
+        boolean extendLater = firstVisibleItem + visibleItemCount >= totalItemCount - PREVIEW_EXTEND_THRESHOLD && events.hasLater();
+        if (!extendEarlier && !extendLater)
+        {
+            return;
+        }
+
+        // if both ends are in reach, alternate the directions, so short calendars don't load their entire history first
+        mExtendedEarlier = extendEarlier && (!extendLater || !mExtendedEarlier);
+
+        long windowStart = events.windowStart();
+        long windowEnd = events.windowEnd();
+        long span = windowEnd - windowStart;
+        if (mExtendedEarlier)
+        {
+            windowStart -= span;
+        }
+        else
+        {
+            windowEnd += span;
+        }
+
+        mExtendingPreview = true;
+        final Context context = getActivity().getApplicationContext();
+        final long newWindowStart = windowStart;
+        final long newWindowEnd = windowEnd;
+        new AsyncTask<Void, Void, EventRowCursor>()
+        {
+
+            @Override
+            protected EventRowCursor doInBackground(Void... params)
+            {
+                return events.widen(context, newWindowStart, newWindowEnd);
+            }
+
+
+            @Override
+            protected void onPostExecute(EventRowCursor result)
+            {
+                mExtendingPreview = false;
+                if (result == null || !isAdded() || mListAdapter.getCursor() != events)
+                {
+                    // the events have been reloaded in the meantime
+                    return;
+                }
+
+                mPreviewWindowStart = result.windowStart();
+                mPreviewWindowEnd = result.windowEnd();
+                // let reloads of the loader use the new window too
+                Loader<Cursor> loader = getLoaderManager().getLoader(LOADER_PREVIEW);
+                if (loader instanceof PreviewLoader)
+                {
+                    ((PreviewLoader) loader).setWindow(mPreviewWindowStart, mPreviewWindowEnd);
+                }
+
+                int oldCount = mListView.getCount();
+                int firstVisible = mListView.getFirstVisiblePosition();
+                View firstChild = mListView.getChildAt(0);
+                int top = firstChild == null ? 0 : firstChild.getTop();
+
+                mListAdapter.swapCursor(result);
+                if (events != mPreviewCursor)
+                {
+                    events.close();
+                }
+
+                if (mExtendedEarlier)
+                {
+                    // the new rows have been inserted above the visible ones, keep showing the same rows
+                    mListView.setSelectionFromTop(firstVisible + mListView.getCount() - oldCount, top);
+                }
+                extendPreviewWindow(mListView.getFirstVisiblePosition(), mListView.getChildCount(), mListView.getCount());
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+
     private void goToToday()
     {
         DateTime now = DateTime.nowAndHere();
         int nowIdx = (now.getYear() << 16) + (now.getMonth() << 8) + now.getDayOfMonth();
 
-        if (mSectionAdapter != null)
+        Cursor cursor = mListAdapter.getCursor();
+        if (mSectionAdapter != null && cursor instanceof EventRowCursor)
+        {
+            // binary search for the first event of today
+            int itemPos = ((EventRowCursor) cursor).positionOfDay(nowIdx);
+            if (itemPos < cursor.getCount())
+            {
+                // the list view has a header view, so the section header at i is at i + 1 in the list view
+                mListView.setSelectionFromTop(Math.min(mSectionAdapter.getCount() - 1, mSectionAdapter.getSectionHeaderPosition(itemPos) + 1), 0);
+                return;
+            }
+        }
+        else if (mSectionAdapter != null)
         {
             for (int i = 0, count = mSectionAdapter.getCount(); i < count; ++i)
             {
-                long id = mSectionAdapter.getItemId(i);
+                long id = mSectionAdapter.getPackedId(i);
                 if (SectionTitlesAdapter.itemPos(id) == SectionTitlesAdapter.HEADER_ID)
                 {
                     if (SectionTitlesAdapter.sectionId(id) >= nowIdx)
@@ -736,24 +925,10 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
             return;
         }
 
-        DateTime start = new DateTime(TimeZone.getTimeZone(cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.TIMZONE))),
-                cursor.getLong(cursor.getColumnIndex(WebCalReaderContract.Events.DTSTART)));
-
-        DateTime end = new DateTime(TimeZone.getTimeZone(cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.TIMZONE))),
-                cursor.getLong(cursor.getColumnIndex(WebCalReaderContract.Events.DTEND)));
-
-        if (cursor.getInt(cursor.getColumnIndex(WebCalReaderContract.Events.IS_ALLDAY)) != 0)
-        {
-            start = start.toAllDay();
-            end = end.toAllDay();
-        }
-
-        Event event = new Event(start, end, cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.TITLE)),
-                cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.DESCRIPTION)),
-                cursor.getString(cursor.getColumnIndex(WebCalReaderContract.Events.LOCATION)));
-
-        Context context = getActivity();
-        EventsPreviewActivity.show(context, event, mCalendarName, mIcon, mTitle, mContentUri);
+        // the preview loader always delivers an EventRowCursor, which creates events from its prepared columns
+        EventRowCursor events = (EventRowCursor) cursor;
+        // pass the neighbouring events as well, so the user can page through them
+        EventsPreviewActivity.show(getActivity(), events.events(events.getPosition(), PREVIEW_NEIGHBOURS), mCalendarName, mIcon, mTitle, mContentUri);
     }
 
 
@@ -850,4 +1025,52 @@ public class CalendarItemFragment extends SubscribeableItemFragment implements L
         }
         return false;
     }
+
+
+    /**
+     * A {@link CursorLoader} for the preview events. It only returns the events that start within a window of time and prepares their rows on the loader
+     * thread, so the list doesn't have to format any dates while scrolling.
+     * <p>
+     * The provider doesn't support range queries on the events, so each load still queries and iterates the entire feed and the window only limits the rows
+     * that are built. To show more events, the fragment widens the window of the result with {@link EventRowCursor#widen(Context, long, long)} instead of
+     * running the query again. The loader only runs the query again when
+     * the events change, keeping the window set with {@link #setWindow(long, long)}.
+     * </p>
+     */
+    private static final class PreviewLoader extends CursorLoader
+    {
+        private volatile long mWindowStart;
+        private volatile long mWindowEnd;
+
+
+        public PreviewLoader(Context context, Uri uri, long windowStart, long windowEnd)
+        {
+            super(context, uri, null, null, null, null);
+            mWindowStart = windowStart;
+            mWindowEnd = windowEnd;
+        }
+
+
+        /**
+         * Set the window to apply to the next result.
+         */
+        public void setWindow(long windowStart, long windowEnd)
+        {
+            mWindowStart = windowStart;
+            mWindowEnd = windowEnd;
+        }
+
+
+        @Override
+        public Cursor loadInBackground()
+        {
+            EventRowCursor cursor = EventRowCursor.precompute(getContext(), super.loadInBackground(), mWindowStart, mWindowEnd);
+            if (cursor != null)
+            {
+                // the query result has been closed after copying it, observe the copy instead
+                cursor.registerContentObserver(new ForceLoadContentObserver());
+            }
+            return cursor;
+        }
+    }
 }
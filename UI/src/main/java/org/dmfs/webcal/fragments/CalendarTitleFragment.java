@@ -36,8 +36,8 @@ import android.widget.TextView;
 
 import com.schedjoules.analytics.Analytics;
 
-import org.dmfs.android.calendarcontent.provider.CalendarContentContract.ContentItem;
 import org.dmfs.webcal.R;
+import org.dmfs.webcal.utils.StarWriter;
 import org.dmfs.webcal.utils.TintedDrawable;
 import org.dmfs.webcal.utils.color.AccentColor;
 import org.dmfs.webcal.views.RemoteImageView;
@@ -77,6 +77,11 @@ public class CalendarTitleFragment extends Fragment implements OnClickListener,
 
     private boolean mStarred;
 
+    /**
+     * The starred state as returned by the provider.
+     */
+    private boolean mStoredStarred;
+
     private boolean mStarVisible = false;
 
     private Drawable mStarIconChecked;
@@ -136,9 +141,10 @@ public class CalendarTitleFragment extends Fragment implements OnClickListener,
     }
 
 
-    public void setStarred(boolean starred)
+    public void setStarred(boolean starred, boolean stored)
     {
         mStarred = starred;
+        mStoredStarred = stored;
         mStarVisible = true;
         getActivity().invalidateOptionsMenu();
     }
@@ -205,7 +211,7 @@ public class CalendarTitleFragment extends Fragment implements OnClickListener,
             item.setChecked(checked);
             // Selectors don't seem to work with menu options, so we have to hard code the icons.
             item.setIcon(mStarred ? mStarIconChecked : mStarIconUnChecked);
-            ContentItem.setStarred(getActivity(), mId, checked);
+            StarWriter.INSTANCE.setStarred(getActivity(), mId, mStoredStarred, checked);
             Analytics.event("starred", "calendar-action", checked ? "starred" : "un-starred", null, String.valueOf(mId), null);
             return true;
         }
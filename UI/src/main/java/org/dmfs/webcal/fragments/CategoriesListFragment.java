@@ -24,9 +24,6 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ListView;
 import android.widget.Toast;
 
 import com.schedjoules.analytics.Analytics;
@@ -38,10 +35,14 @@ import org.dmfs.android.retentionmagic.annotations.Parameter;
 import org.dmfs.android.retentionmagic.annotations.Retain;
 import org.dmfs.webcal.R;
 import org.dmfs.webcal.adapters.MixedNavigationAdapter;
+import org.dmfs.webcal.utils.ImageProxy;
+import org.dmfs.webcal.utils.QuerySnapshotCache;
 
+import androidx.fragment.app.Fragment;
 import androidx.loader.app.LoaderManager;
-import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 
 /**
@@ -49,7 +50,7 @@ import androidx.loader.content.Loader;
  *
  * @author Marten Gajda <marten@dmfs.org>
  */
-public class CategoriesListFragment extends SupportFragment implements OnItemClickListener, LoaderManager.LoaderCallbacks<Cursor>
+public class CategoriesListFragment extends SupportFragment implements MixedNavigationAdapter.OnItemClickListener, LoaderManager.LoaderCallbacks<Cursor>
 {
     public static final String ARG_SECTION_ID = "section_id";
     public static final String ARG_ITEM_ID = "item_id";
@@ -71,7 +72,23 @@ public class CategoriesListFragment extends SupportFragment implements OnItemCli
     private MixedNavigationAdapter mAdapter;
     private int mFirstItem;
     private int mPosFromTop;
-    private ListView mListView;
+    private RecyclerView mListView;
+    private LinearLayoutManager mLayoutManager;
+
+    /**
+     * Whether the loader has delivered the items of this section.
+     */
+    private boolean mLoaded;
+
+    /**
+     * The {@link ImageProxy} to prefetch the icons of the list with.
+     */
+    private ImageProxy mImageProxy;
+
+    /**
+     * The size of the icons in the list in pixels.
+     */
+    private int mIconSize;
 
     @Retain
     private Uri mPurchasedItem = null;
@@ -92,13 +109,23 @@ public class CategoriesListFragment extends SupportFragment implements OnItemCli
     }
 
 
+    @Override
+    public void onAttach(Activity activity)
+    {
+        super.onAttach(activity);
+        // the loader may deliver results after this fragment has been detached, so don't get these from the fragment in the loader callbacks
+        mImageProxy = ImageProxy.getInstance(activity);
+        mIconSize = activity.getApplicationContext().getResources().getDimensionPixelSize(R.dimen.list_item_icon_size);
+    }
+
+
     @Override
     public void onResume()
     {
         super.onResume();
         if (mFirstItem >= 0)
         {
-            mListView.setSelectionFromTop(mFirstItem, mPosFromTop);
+            mLayoutManager.scrollToPositionWithOffset(mFirstItem, mPosFromTop);
         }
     }
 
@@ -107,10 +134,23 @@ public class CategoriesListFragment extends SupportFragment implements OnItemCli
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState)
     {
 
-        mListView = (ListView) inflater.inflate(R.layout.categories_list, container, false);
-        mAdapter = new MixedNavigationAdapter(getActivity(), null, 0, false);
+        mListView = (RecyclerView) inflater.inflate(R.layout.categories_list, container, false);
+        mLayoutManager = new LinearLayoutManager(inflater.getContext());
+        // return the rows to the pool when the page is detached, so the next page can reuse them
+        mLayoutManager.setRecycleChildrenOnDetach(true);
+        mListView.setLayoutManager(mLayoutManager);
+        mListView.setHasFixedSize(true);
+        Fragment parent = getParentFragment();
+        if (parent instanceof PagerFragment)
+        {
+            mListView.setRecycledViewPool(((PagerFragment) parent).viewPool());
+        }
+        mAdapter = new MixedNavigationAdapter(getActivity(), false);
+        mAdapter.setOnItemClickListener(this);
         mListView.setAdapter(mAdapter);
-        mListView.setOnItemClickListener(this);
+        mLoaded = false;
+
+        showSnapshot();
 
         /*
          * Apparently we have to use the parent loader manager.
@@ -131,7 +171,7 @@ public class CategoriesListFragment extends SupportFragment implements OnItemCli
     public Loader<Cursor> onCreateLoader(int id, Bundle args)
     {
         Uri uri = CalendarContentContract.Section.getItemContentUri(getActivity(), mSectionId);
-        return new CursorLoader(getActivity(), uri, MixedNavigationAdapter.PROJECTION, null, null, null);
+        return new SnapshotLoader(getActivity(), uri, MixedNavigationAdapter.PROJECTION, null);
     }
 
 
@@ -139,10 +179,10 @@ public class CategoriesListFragment extends SupportFragment implements OnItemCli
     public void onPause()
     {
         super.onPause();
-        mFirstItem = mListView.getFirstVisiblePosition();
+        mFirstItem = mLayoutManager.findFirstVisibleItemPosition();
         if (mFirstItem >= 0)
         {
-            View firstChild = mListView.getChildAt(0);
+            View firstChild = mLayoutManager.findViewByPosition(mFirstItem);
             mPosFromTop = firstChild == null ? 0 : firstChild.getTop();
         }
     }
@@ -151,25 +191,38 @@ public class CategoriesListFragment extends SupportFragment implements OnItemCli
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor)
     {
-        mAdapter.swapCursor(cursor);
+        if (!isAdded())
+        {
+            // the loader is owned by the parent and outlives this fragment
+            return;
+        }
+
+        mLoaded = true;
+        mAdapter.setCursor(cursor);
+
+        // load all icons of this section in the background, so they're ready when the rows are shown
+        if (cursor != null)
+        {
+            mImageProxy.prefetch(cursor, cursor.getColumnIndex(ContentItem.ICON_ID), mIconSize);
+        }
     }
 
 
     @Override
     public void onLoaderReset(Loader<Cursor> cursor)
     {
-        mAdapter.swapCursor(null);
+        mLoaded = false;
+        mAdapter.setCursor(null);
     }
 
 
     @Override
-    public void onItemClick(AdapterView<?> adpView, View view, int position, long id)
+    public void onItemClick(MixedNavigationAdapter.Item item)
     {
-        Cursor cursor = (Cursor) mAdapter.getItem(position);
-        String itemType = cursor.getString(2);
-        String itemTitle = cursor.getString(1);
-        long itemIcon = cursor.getLong(cursor.getColumnIndex(ContentItem.ICON_ID));
-        long selectedId = cursor.getLong(0);
+        String itemType = item.type;
+        String itemTitle = item.title;
+        long itemIcon = item.iconId;
+        long selectedId = item.rowId;
         Analytics
                 .event("item-clicked", "navigate", null, String.valueOf(ContentItem.getApiId(mItemId)), String.valueOf(ContentItem.getApiId(selectedId)), null);
         if (itemType.equals(CalendarContentContract.ContentItem.TYPE_PAGE))
@@ -196,6 +249,28 @@ public class CategoriesListFragment extends SupportFragment implements OnItemCli
     }
 
 
+    /**
+     * Show the cached items of this section, if there are any and the loader hasn't delivered the current items yet. The pager may have prefetched them.
+     */
+    void showSnapshot()
+    {
+        if (mAdapter == null || mLoaded || !isAdded())
+        {
+            return;
+        }
+
+        Cursor snapshot = QuerySnapshotCache.INSTANCE.get(
+                QuerySnapshotCache.key(CalendarContentContract.Section.getItemContentUri(getActivity(), mSectionId), MixedNavigationAdapter.PROJECTION, null,
+                        null, null));
+        if (snapshot != null)
+        {
+            mAdapter.setCursor(snapshot);
+            // the adapter keeps a copy of the items, the snapshot is not needed anymore
+            snapshot.close();
+        }
+    }
+
+
     public long getSectionId()
     {
         return mSectionId;
@@ -20,7 +20,6 @@ package org.dmfs.webcal.fragments;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.text.TextUtils;
-import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -30,15 +29,13 @@ import com.schedjoules.analytics.Analytics;
 
 import org.dmfs.android.retentionmagic.SupportFragment;
 import org.dmfs.android.retentionmagic.annotations.Parameter;
-import org.dmfs.rfc5545.DateTime;
-import org.dmfs.rfc5545.Duration;
 import org.dmfs.webcal.R;
 import org.dmfs.webcal.utils.Event;
+import org.dmfs.webcal.utils.EventFormatter;
 import org.dmfs.webcal.utils.TintedDrawable;
 import org.dmfs.webcal.utils.color.AccentColor;
 import org.dmfs.webcal.utils.color.Color;
 
-import java.util.Formatter;
 import java.util.Locale;
 
 
@@ -54,9 +51,6 @@ public class EventsPreviewDetailFragment extends SupportFragment
     private static final String ARG_CALENDAR_IMAGE = "CALENDAR_IMAGE";
     private static final String ARG_PAGE_TITLE = "PAGE_TITLE";
 
-    private final static int DEFAULT_DATEUTILS_FLAGS = DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_WEEKDAY;
-    private final static Duration ONEDAY = new Duration(1, 1, 0);
-
     @Parameter(key = ARG_PREVIEW_EVENT)
     private Event mPreviewEvent;
 
@@ -132,50 +126,16 @@ public class EventsPreviewDetailFragment extends SupportFragment
         tintCompoundDrawable(dateView, new AccentColor(getContext()));
         TextView timeView = (TextView) view.findViewById(R.id.time);
 
-        int flags = DEFAULT_DATEUTILS_FLAGS;
-
-        int currentYear = DateTime.nowAndHere().getYear();
-        if (mPreviewEvent.start.getYear() != currentYear || mPreviewEvent.end.getYear() != currentYear)
-        {
-            flags |= DateUtils.FORMAT_SHOW_YEAR;
-        }
-
-        if (mPreviewEvent.start.isAllDay())
+        EventFormatter formatter = new EventFormatter(getActivity());
+        dateView.setText(formatter.detailDate(mPreviewEvent));
+        String time = formatter.detailTime(mPreviewEvent);
+        if (time == null)
         {
-            if (mPreviewEvent.start.addDuration(ONEDAY).before(mPreviewEvent.end))
-            {
-                dateView.setText(DateUtils.formatDateRange(getActivity(), new Formatter(Locale.getDefault()), mPreviewEvent.start.getTimestamp(),
-                        mPreviewEvent.end.getTimestamp(), flags, "UTC").toString());
-            }
-            else
-            {
-                // one day event, just pass start as end
-                dateView.setText(DateUtils.formatDateRange(getActivity(), new Formatter(Locale.getDefault()), mPreviewEvent.start.getTimestamp(),
-                        mPreviewEvent.start.getTimestamp(), flags, "UTC").toString());
-            }
             timeView.setVisibility(View.GONE);
         }
         else
         {
-            if (mPreviewEvent.start.toAllDay().equals(mPreviewEvent.end.toAllDay()))
-            {
-                // starts and ends on the same day
-                dateView.setText(DateUtils.formatDateRange(getActivity(), new Formatter(Locale.getDefault()), mPreviewEvent.start.getTimestamp(),
-                        mPreviewEvent.start.getTimestamp(), flags, mPreviewEvent.start.getTimeZone().getID()).toString());
-                // starts and ends on the same day
-                timeView.setText(DateUtils.formatDateRange(getActivity(), new Formatter(Locale.getDefault()), mPreviewEvent.start.getTimestamp(),
-                        mPreviewEvent.end.getTimestamp(), (flags & ~(DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_WEEKDAY)) | DateUtils.FORMAT_SHOW_TIME,
-                        mPreviewEvent.start.getTimeZone().getID()).toString());
-            }
-            else
-            {
-                // more than one day in between
-                flags |= DateUtils.FORMAT_SHOW_TIME;
-                dateView.setText(DateUtils.formatDateRange(getActivity(), new Formatter(Locale.getDefault()), mPreviewEvent.start.getTimestamp(),
-                        mPreviewEvent.start.getTimestamp(), flags, mPreviewEvent.start.getTimeZone().getID()).toString() + " -");
-                timeView.setText(DateUtils.formatDateRange(getActivity(), new Formatter(Locale.getDefault()), mPreviewEvent.end.getTimestamp(),
-                        mPreviewEvent.end.getTimestamp(), flags, mPreviewEvent.start.getTimeZone().getID()).toString());
-            }
+            timeView.setText(time);
         }
 
         Analytics.screen("eventpreview", null, null);
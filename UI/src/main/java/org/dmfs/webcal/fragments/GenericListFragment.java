@@ -25,9 +25,6 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import org.dmfs.android.calendarcontent.provider.CalendarContentContract;
@@ -38,12 +35,14 @@ import org.dmfs.webcal.BaseActivity;
 import org.dmfs.webcal.R;
 import org.dmfs.webcal.adapters.MixedNavigationAdapter;
 import org.dmfs.webcal.fragments.CategoriesListFragment.CategoryNavigator;
+import org.dmfs.webcal.utils.ImageProxy;
+import org.dmfs.webcal.utils.QuerySnapshotCache;
 
 import androidx.appcompat.app.ActionBar;
-import androidx.fragment.app.FragmentActivity;
 import androidx.loader.app.LoaderManager;
-import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 
 /**
@@ -54,7 +53,7 @@ import androidx.loader.content.Loader;
  *
  * @author Marten Gajda <marten@dmfs.org>
  */
-public class GenericListFragment extends ActionBarFragment implements OnItemClickListener, LoaderManager.LoaderCallbacks<Cursor>
+public class GenericListFragment extends ActionBarFragment implements MixedNavigationAdapter.OnItemClickListener, LoaderManager.LoaderCallbacks<Cursor>
 {
     public static final String ARG_URI = "uri";
     public static final String ARG_TITLE = "title";
@@ -69,6 +68,11 @@ public class GenericListFragment extends ActionBarFragment implements OnItemClic
             CalendarContentContract.ContentItem._ID, CalendarContentContract.ContentItem.TITLE,
             CalendarContentContract.ContentItem.TYPE, CalendarContentContract.ContentItem.ICON_ID, ContentItem.SEASON, ContentItem.STARRED };
     private static final String TAG = "GenericListFragment";
+
+    /**
+     * The id of the list loader. The loader is owned by this fragment, so it doesn't have to be unique beyond that.
+     */
+    private final static int ID_LIST_LOADER = 0;
     @Parameter(key = ARG_URI)
     private Uri mUri;
 
@@ -87,9 +91,20 @@ public class GenericListFragment extends ActionBarFragment implements OnItemClic
     private MixedNavigationAdapter mAdapter;
     private int mFirstItem;
     private int mPosFromTop;
-    private ListView mListView;
+    private RecyclerView mListView;
+    private LinearLayoutManager mLayoutManager;
     private TextView mMessageView;
 
+    /**
+     * The {@link ImageProxy} to prefetch the icons of the list with.
+     */
+    private ImageProxy mImageProxy;
+
+    /**
+     * The size of the icons in the list in pixels.
+     */
+    private int mIconSize;
+
 
     public static GenericListFragment newInstance(Uri uri, String title, int emptyMessage, String[] projection, boolean showStars)
     {
@@ -112,14 +127,24 @@ public class GenericListFragment extends ActionBarFragment implements OnItemClic
     }
 
 
+    @Override
+    public void onAttach(Activity activity)
+    {
+        super.onAttach(activity);
+        // the loader may deliver results after this fragment has been detached, so don't get these from the fragment in the loader callbacks
+        mImageProxy = ImageProxy.getInstance(activity);
+        mIconSize = activity.getApplicationContext().getResources().getDimensionPixelSize(R.dimen.list_item_icon_size);
+    }
+
+
     @Override
     public void onPause()
     {
         super.onPause();
-        mFirstItem = mListView.getFirstVisiblePosition();
+        mFirstItem = mLayoutManager.findFirstVisibleItemPosition();
         if (mFirstItem >= 0)
         {
-            View firstChild = mListView.getChildAt(0);
+            View firstChild = mLayoutManager.findViewByPosition(mFirstItem);
             mPosFromTop = firstChild == null ? 0 : firstChild.getTop();
         }
     }
@@ -131,7 +156,7 @@ public class GenericListFragment extends ActionBarFragment implements OnItemClic
         super.onResume();
         if (mFirstItem >= 0)
         {
-            mListView.setSelectionFromTop(mFirstItem, mPosFromTop);
+            mLayoutManager.scrollToPositionWithOffset(mFirstItem, mPosFromTop);
         }
     }
 
@@ -141,29 +166,30 @@ public class GenericListFragment extends ActionBarFragment implements OnItemClic
     {
 
         View result = inflater.inflate(R.layout.generic_list, container, false);
-        mListView = (ListView) result.findViewById(android.R.id.list);
+        mListView = (RecyclerView) result.findViewById(android.R.id.list);
         mMessageView = (TextView) result.findViewById(android.R.id.message);
-        mAdapter = new MixedNavigationAdapter(getActivity(), null, 0, mShowStars);
+        mLayoutManager = new LinearLayoutManager(inflater.getContext());
+        mListView.setLayoutManager(mLayoutManager);
+        mListView.setHasFixedSize(true);
+        mAdapter = new MixedNavigationAdapter(getActivity(), mShowStars);
         mAdapter.setShowMissingIcons(true);
+        mAdapter.setOnItemClickListener(this);
         mListView.setAdapter(mAdapter);
-        mListView.setOnItemClickListener(this);
 
         setupActionBar(result);
 
-        FragmentActivity activity = getActivity();
-
-		/*
-         * FIXME: Using a random loader id is a hack. We just need to ensure that the loader id doesn't collide with another load id that might be visible.
-		 */
-        if (getParentFragment() != null)
-        {
-            getParentFragment().getLoaderManager().initLoader((int) (Math.random() * Integer.MAX_VALUE), null, this);
-        }
-        else
+        // show the last result of this query right away, the loader replaces it when the actual result is ready
+        Cursor snapshot = QuerySnapshotCache.INSTANCE.get(QuerySnapshotCache.key(mUri, mProjection, null, null, ContentItem.TITLE));
+        if (snapshot != null)
         {
-            activity.getSupportLoaderManager().initLoader((int) (Math.random() * Integer.MAX_VALUE), null, this);
+            showCursor(snapshot);
+            // the adapter keeps a copy of the items, the snapshot is not needed anymore
+            snapshot.close();
         }
 
+        // the loader is retained across configuration changes and destroyed with this fragment, so a re-created fragment gets the result of the existing loader
+        getLoaderManager().initLoader(ID_LIST_LOADER, null, this);
+
         return result;
     }
 
@@ -171,13 +197,23 @@ public class GenericListFragment extends ActionBarFragment implements OnItemClic
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args)
     {
-        CursorLoader loader = new CursorLoader(getActivity(), mUri, mProjection, null, null, ContentItem.TITLE);
-        return loader;
+        return new SnapshotLoader(getActivity(), mUri, mProjection, ContentItem.TITLE);
     }
 
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor)
+    {
+        if (!isAdded())
+        {
+            // the view has been destroyed already
+            return;
+        }
+        showCursor(cursor);
+    }
+
+
+    private void showCursor(Cursor cursor)
     {
         if (cursor.getCount() == 0)
         {
@@ -189,7 +225,10 @@ public class GenericListFragment extends ActionBarFragment implements OnItemClic
         {
             mMessageView.setVisibility(View.GONE);
             mListView.setVisibility(View.VISIBLE);
-            mAdapter.swapCursor(cursor);
+            mAdapter.setCursor(cursor);
+
+            // load all icons of this list in the background, so they're ready when the rows are shown
+            mImageProxy.prefetch(cursor, cursor.getColumnIndex(ContentItem.ICON_ID), mIconSize);
         }
     }
 
@@ -197,38 +236,29 @@ public class GenericListFragment extends ActionBarFragment implements OnItemClic
     @Override
     public void onLoaderReset(Loader<Cursor> cursor)
     {
-        mAdapter.swapCursor(null);
+        mAdapter.setCursor(null);
     }
 
 
     @Override
-    public void onItemClick(AdapterView<?> adpView, View view, int position, long id)
+    public void onItemClick(MixedNavigationAdapter.Item item)
     {
-        Cursor cursor = (Cursor) adpView.getAdapter().getItem(position);
-        String itemType = cursor.getString(2);
-        String itemTitle = cursor.getString(1);
-        long itemIcon = cursor.getLong(cursor.getColumnIndex(ContentItem.ICON_ID));
-        if (CalendarContentContract.ContentItem.TYPE_PAGE.equals(itemType))
+        if (CalendarContentContract.ContentItem.TYPE_PAGE.equals(item.type))
         {
-            long selectedId = cursor.getLong(0);
             Activity activity = getActivity();
             if (activity instanceof CategoryNavigator)
             {
-                ((CategoryNavigator) activity).openCategory(selectedId, itemTitle, itemIcon);
+                ((CategoryNavigator) activity).openCategory(item.rowId, item.title, item.iconId);
             }
 
         }
-        else if (CalendarContentContract.ContentItem.TYPE_CALENDAR.equals(itemType))
+        else if (CalendarContentContract.ContentItem.TYPE_CALENDAR.equals(item.type))
         {
-            long selectedId = cursor.getLong(0);
-            if (cursor.getColumnIndex(CalendarContentContract.SubscribedCalendars.ITEM_ID) >= 0)
-            {
-                selectedId = cursor.getLong(cursor.getColumnIndex(SubscribedCalendars.ITEM_ID));
-            }
+            // for synced calendars the item id is the id of the calendar item, not the id of the subscription
             Activity activity = getActivity();
             if (activity instanceof CategoryNavigator)
             {
-                ((CategoryNavigator) activity).openCalendar(selectedId, -1);
+                ((CategoryNavigator) activity).openCalendar(item.id, -1);
             }
         }
         else
@@ -47,9 +47,11 @@ import org.dmfs.webcal.utils.ImageProxy.ImageAvailableListener;
 import org.dmfs.webcal.views.TabBarLayout;
 
 import androidx.appcompat.widget.Toolbar;
+import androidx.fragment.app.Fragment;
 import androidx.loader.app.LoaderManager;
 import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
+import androidx.recyclerview.widget.RecyclerView;
 import androidx.viewpager.widget.ViewPager;
 
 
@@ -97,6 +99,16 @@ public class PagerFragment extends ActionBarFragment implements LoaderManager.Lo
 
     private SharedPreferences mPrefs;
 
+    /**
+     * Loads the items of the sections just beyond the pages the pager keeps, so the pages don't start empty.
+     */
+    private SectionPrefetcher mPrefetcher;
+
+    /**
+     * The pool of rows shared by the lists of all pages, so swiping to another page doesn't have to inflate new rows.
+     */
+    private RecyclerView.RecycledViewPool mViewPool;
+
 
     /**
      * Create a new {@link PagerFragment} for the given sections {@link Uri}.
@@ -200,11 +212,29 @@ public class PagerFragment extends ActionBarFragment implements LoaderManager.Lo
         mMessageText = (TextView) returnView.findViewById(android.R.id.message);
         mTabLayout = (TabBarLayout) returnView.findViewById(R.id.tab_bar);
 
+        mViewPool = new RecyclerView.RecycledViewPool();
         mAdapter = new SectionsPagerAdapter(getChildFragmentManager(), mIcon);
 
         mViewPager = (ViewPager) returnView.findViewById(R.id.pager);
         mViewPager.setAdapter(mAdapter);
 
+        mPrefetcher = new SectionPrefetcher(inflater.getContext(), new SectionPrefetcher.Listener()
+        {
+            @Override
+            public void onSectionPrefetched(long sectionId)
+            {
+                showPrefetchedSection(sectionId);
+            }
+        });
+        mViewPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener()
+        {
+            @Override
+            public void onPageSelected(int position)
+            {
+                prefetchSections(position);
+            }
+        });
+
         setupActionBar(returnView);
 
         // start loading the pages
@@ -268,6 +298,10 @@ public class PagerFragment extends ActionBarFragment implements LoaderManager.Lo
                 }
 
             }
+
+            // the sections may have changed, load the items of the sections next to the pages the pager creates
+            mPrefetcher.reset();
+            prefetchSections(mViewPager.getCurrentItem());
         }
         else
         {
@@ -307,6 +341,64 @@ public class PagerFragment extends ActionBarFragment implements LoaderManager.Lo
     }
 
 
+    @Override
+    public void onDestroyView()
+    {
+        super.onDestroyView();
+        // don't keep the rows of the destroyed pages while we're on the back stack
+        mViewPool = null;
+    }
+
+
+    /**
+     * Returns the {@link RecyclerView.RecycledViewPool} the lists of the pages share.
+     */
+    RecyclerView.RecycledViewPool viewPool()
+    {
+        return mViewPool;
+    }
+
+
+    /**
+     * Prefetch the items of the sections just beyond the offscreen page limit of the given position. The pager has already created and started loading the
+     * pages within the limit, so prefetching those wouldn't get ahead of the user.
+     */
+    private void prefetchSections(int position)
+    {
+        int distance = mViewPager.getOffscreenPageLimit() + 1;
+        long sectionId = mAdapter.getSectionId(position - distance);
+        if (sectionId >= 0)
+        {
+            mPrefetcher.prefetch(sectionId);
+        }
+        sectionId = mAdapter.getSectionId(position + distance);
+        if (sectionId >= 0)
+        {
+            mPrefetcher.prefetch(sectionId);
+        }
+    }
+
+
+    /**
+     * Hand the prefetched items of the given section to its page, in case the page has been created before they were ready.
+     */
+    private void showPrefetchedSection(long sectionId)
+    {
+        if (!isAdded())
+        {
+            return;
+        }
+
+        for (Fragment fragment : getChildFragmentManager().getFragments())
+        {
+            if (fragment instanceof CategoriesListFragment && ((CategoriesListFragment) fragment).getSectionId() == sectionId)
+            {
+                ((CategoriesListFragment) fragment).showSnapshot();
+            }
+        }
+    }
+
+
     private void populateTabBar()
     {
         // Give the SlidingTabLayout the ViewPager, this must be done AFTER the ViewPager has had
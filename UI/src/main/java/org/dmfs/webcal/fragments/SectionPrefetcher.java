@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.fragments;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.dmfs.android.calendarcontent.provider.CalendarContentContract;
+import org.dmfs.webcal.adapters.MixedNavigationAdapter;
+import org.dmfs.webcal.utils.QuerySnapshotCache;
+
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * Loads the items of sections in the background and stores them in the {@link QuerySnapshotCache}, so a {@link CategoriesListFragment} can show its items
+ * as soon as it's created.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class SectionPrefetcher
+{
+    /**
+     * A listener that's notified when the items of a section have been prefetched.
+     */
+    public interface Listener
+    {
+        /**
+         * Called on the main thread when the items of the given section are in the {@link QuerySnapshotCache}.
+         *
+         * @param sectionId
+         *         The id of the section.
+         */
+        public void onSectionPrefetched(long sectionId);
+    }
+
+
+    private final static String TAG = "SectionPrefetcher";
+
+    private final Context mAppContext;
+
+    private final Listener mListener;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The ids of the sections that have been prefetched since the last call to {@link #reset()}.
+     */
+    private final Set<Long> mPrefetched = new HashSet<Long>(8);
+
+
+    public SectionPrefetcher(Context context, Listener listener)
+    {
+        mAppContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+
+    /**
+     * Load the items of the given section in the background, unless that has been done already.
+     *
+     * @param sectionId
+     *         The id of the section.
+     */
+    public void prefetch(final long sectionId)
+    {
+        if (!mPrefetched.add(sectionId))
+        {
+            return;
+        }
+
+        // this must match the query of CategoriesListFragment, otherwise it won't find the result
+        final Uri uri = CalendarContentContract.Section.getItemContentUri(mAppContext, sectionId);
+        final String queryKey = QuerySnapshotCache.key(uri, MixedNavigationAdapter.PROJECTION, null, null, null);
+        if (QuerySnapshotCache.INSTANCE.contains(queryKey))
+        {
+            // the section has been loaded before, the fragment refreshes it anyway
+            return;
+        }
+
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Cursor cursor = null;
+                try
+                {
+                    cursor = mAppContext.getContentResolver().query(uri, MixedNavigationAdapter.PROJECTION, null, null, null);
+                    if (cursor == null)
+                    {
+                        return;
+                    }
+                    QuerySnapshotCache.INSTANCE.put(queryKey, cursor);
+                    mHandler.post(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            mListener.onSectionPrefetched(sectionId);
+                        }
+                    });
+                }
+                catch (RuntimeException e)
+                {
+                    // prefetching is just an optimization, the fragment will run the query again
+                    Log.w(TAG, "could not prefetch " + uri, e);
+                }
+                finally
+                {
+                    if (cursor != null)
+                    {
+                        cursor.close();
+                    }
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Forget which sections have been prefetched, so they are prefetched again if they are not in the cache anymore.
+     */
+    public void reset()
+    {
+        mPrefetched.clear();
+    }
+}
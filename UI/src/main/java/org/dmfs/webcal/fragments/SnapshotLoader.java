@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.fragments;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.dmfs.webcal.utils.CursorSnapshot;
+import org.dmfs.webcal.utils.QuerySnapshotCache;
+
+import androidx.loader.content.CursorLoader;
+
+
+/**
+ * A {@link CursorLoader} that stores each result in the {@link QuerySnapshotCache}.
+ * <p>
+ * The result is copied once. The loader delivers a cursor on the copy and closes the cursor of the query right away, so the result isn't iterated twice.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class SnapshotLoader extends CursorLoader
+{
+    private final String mQueryKey;
+
+
+    public SnapshotLoader(Context context, Uri uri, String[] projection, String sortOrder)
+    {
+        super(context, uri, projection, null, null, sortOrder);
+        mQueryKey = QuerySnapshotCache.key(uri, projection, null, null, sortOrder);
+    }
+
+
+    @Override
+    public Cursor loadInBackground()
+    {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null)
+        {
+            QuerySnapshotCache.INSTANCE.put(mQueryKey, (Cursor) null);
+            return null;
+        }
+
+        CursorSnapshot snapshot;
+        Uri notificationUri = cursor.getNotificationUri();
+        try
+        {
+            snapshot = CursorSnapshot.copy(cursor);
+        }
+        finally
+        {
+            cursor.close();
+        }
+        QuerySnapshotCache.INSTANCE.put(mQueryKey, snapshot);
+
+        Cursor result = snapshot.cursor(getContext().getContentResolver(), notificationUri);
+        // the cursor of the query has been closed, observe the copy instead
+        result.registerContentObserver(new ForceLoadContentObserver());
+        return result;
+    }
+}
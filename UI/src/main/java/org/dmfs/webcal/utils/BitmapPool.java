@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+
+/**
+ * A size bounded pool of mutable {@link Bitmap}s that can be reused to decode or scale images.
+ * <p>
+ * Only put bitmaps into the pool that are guaranteed not to be used anywhere else, i.e. intermediate results of the decoding pipeline. Never put bitmaps into
+ * the pool that may still be displayed.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class BitmapPool
+{
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<Bitmap>();
+    private final int mMaxSize;
+    private int mSize;
+
+
+    /**
+     * Create a new {@link BitmapPool}.
+     *
+     * @param maxSize
+     *         The maximum number of bytes the pooled bitmaps may occupy.
+     */
+    public BitmapPool(int maxSize)
+    {
+        mMaxSize = maxSize;
+    }
+
+
+    /**
+     * Returns a {@link Bitmap} from the pool that has been reconfigured to the given dimensions and config. The content of the bitmap is cleared.
+     *
+     * @param width
+     *         The width of the bitmap.
+     * @param height
+     *         The height of the bitmap.
+     * @param config
+     *         The {@link Bitmap.Config} of the bitmap.
+     *
+     * @return A {@link Bitmap} or <code>null</code> if there is no bitmap in the pool that's large enough.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config)
+    {
+        Bitmap bitmap = take(width * height * bytesPerPixel(config));
+        if (bitmap != null)
+        {
+            bitmap.reconfigure(width, height, config);
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return bitmap;
+    }
+
+
+    /**
+     * Returns a {@link Bitmap} from the pool that has at least the given allocation size, without changing its configuration. This is meant to be used as
+     * {@link android.graphics.BitmapFactory.Options#inBitmap}, which reconfigures the bitmap itself.
+     *
+     * @param byteCount
+     *         The minimum number of bytes the bitmap must have allocated.
+     *
+     * @return A {@link Bitmap} or <code>null</code> if there is no bitmap in the pool that's large enough.
+     */
+    public synchronized Bitmap take(int byteCount)
+    {
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (iterator.hasNext())
+        {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.getAllocationByteCount() >= byteCount)
+            {
+                iterator.remove();
+                mSize -= bitmap.getAllocationByteCount();
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns a bitmap to the pool. Bitmaps that are not mutable or don't fit into the pool are just dropped.
+     *
+     * @param bitmap
+     *         The {@link Bitmap} that's no longer used.
+     */
+    public synchronized void put(Bitmap bitmap)
+    {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled())
+        {
+            return;
+        }
+
+        int byteCount = bitmap.getAllocationByteCount();
+        if (byteCount > mMaxSize)
+        {
+            return;
+        }
+
+        // drop the oldest bitmaps to make room for the new one
+        while (mSize + byteCount > mMaxSize && !mBitmaps.isEmpty())
+        {
+            mSize -= mBitmaps.removeFirst().getAllocationByteCount();
+        }
+        mBitmaps.addLast(bitmap);
+        mSize += byteCount;
+    }
+
+
+    /**
+     * Drops bitmaps from the pool until it's smaller than the given size.
+     *
+     * @param maxSize
+     *         The maximum number of bytes the pool should occupy after this call.
+     */
+    public synchronized void trimToSize(int maxSize)
+    {
+        while (mSize > maxSize && !mBitmaps.isEmpty())
+        {
+            mSize -= mBitmaps.removeFirst().getAllocationByteCount();
+        }
+    }
+
+
+    private static int bytesPerPixel(Bitmap.Config config)
+    {
+        return config == Bitmap.Config.RGB_565 ? 2 : 4;
+    }
+}
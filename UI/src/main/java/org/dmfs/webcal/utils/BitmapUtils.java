@@ -19,10 +19,17 @@ package org.dmfs.webcal.utils;
 
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.util.DisplayMetrics;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 
 /**
  * Helper to perform certain operations on images.
@@ -54,4 +61,180 @@ public class BitmapUtils
         Bitmap b = Bitmap.createScaledBitmap(original, (int) (dpWidth * metrics.density), (int) (dpHeight * metrics.density), true);
         return new BitmapDrawable(resources, b);
     }
+
+
+    /**
+     * Decode an image, so it fits into a square of the given size. The image is decoded with an <code>inSampleSize</code> that gets as close as possible to
+     * the target size and only the remaining difference is scaled. Opaque images are returned in {@link Bitmap.Config#RGB_565}. If possible, bitmaps are
+     * taken from the given {@link BitmapPool} and intermediate bitmaps are returned to it.
+     *
+     * @param data
+     *         The encoded image.
+     * @param targetSize
+     *         The maximum width and height in pixels or <code>0</code> to keep the original size.
+     * @param opaque
+     *         Whether the image is known to have no alpha channel.
+     * @param pool
+     *         A {@link BitmapPool}.
+     *
+     * @return The decoded {@link Bitmap} or <code>null</code> if the image could not be decoded.
+     */
+    public static Bitmap decodeSampled(byte[] data, int targetSize, boolean opaque, BitmapPool pool)
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+        {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, targetSize);
+        options.inMutable = true;
+        options.inPreferredConfig = opaque || "image/jpeg".equals(options.outMimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+        int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = pool.take(sampledWidth * sampledHeight * (options.inPreferredConfig == Bitmap.Config.RGB_565 ? 2 : 4));
+
+        Bitmap sampled;
+        try
+        {
+            sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // the pooled bitmap can't be used for this image
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        if (sampled == null)
+        {
+            pool.put(options.inBitmap);
+            return null;
+        }
+
+        int width = sampled.getWidth();
+        int height = sampled.getHeight();
+        if (targetSize <= 0 || width <= targetSize && height <= targetSize)
+        {
+            return sampled;
+        }
+
+        // scale the remaining difference
+        float scale = (float) targetSize / Math.max(width, height);
+        int scaledWidth = Math.max(1, Math.round(width * scale));
+        int scaledHeight = Math.max(1, Math.round(height * scale));
+        Bitmap.Config config = sampled.hasAlpha() ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+        Bitmap scaled = pool.get(scaledWidth, scaledHeight, config);
+        if (scaled == null)
+        {
+            scaled = Bitmap.createBitmap(scaledWidth, scaledHeight, config);
+        }
+        new Canvas(scaled).drawBitmap(sampled, null, new Rect(0, 0, scaledWidth, scaledHeight), new Paint(Paint.FILTER_BITMAP_FLAG));
+
+        // the sampled bitmap is not used anywhere else, keep it for the next image
+        pool.put(sampled);
+        return scaled;
+    }
+
+
+    /**
+     * Returns whether the given bitmap has no translucent pixels. The pixels of bitmaps with an alpha channel are scanned, so don't call this on the main
+     * thread.
+     *
+     * @param bitmap
+     *         The {@link Bitmap} to check.
+     *
+     * @return <code>true</code> if all pixels are opaque.
+     */
+    public static boolean isOpaque(Bitmap bitmap)
+    {
+        if (!bitmap.hasAlpha())
+        {
+            return true;
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = new int[width];
+        for (int y = 0; y < height; ++y)
+        {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int pixel : row)
+            {
+                if (pixel >>> 24 != 0xff)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the largest power of two sample size that keeps the image at least as large as the target size.
+     *
+     * @param width
+     *         The width of the original image.
+     * @param height
+     *         The height of the original image.
+     * @param targetSize
+     *         The maximum width and height in pixels or <code>0</code> to keep the original size.
+     *
+     * @return The sample size.
+     */
+    public static int sampleSize(int width, int height, int targetSize)
+    {
+        int sampleSize = 1;
+        if (targetSize > 0)
+        {
+            int largest = Math.max(width, height);
+            while (largest / (sampleSize * 2) >= targetSize)
+            {
+                sampleSize *= 2;
+            }
+        }
+        return sampleSize;
+    }
+
+
+    /**
+     * Read the given {@link InputStream} into a byte array. The stream is not closed.
+     *
+     * @param in
+     *         The {@link InputStream} to read.
+     *
+     * @return The content of the stream.
+     *
+     * @throws IOException
+     *         If the stream could not be read.
+     */
+    public static byte[] readFully(InputStream in) throws IOException
+    {
+        byte[] buffer = new byte[Math.max(in.available(), 8 * 1024)];
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) >= 0)
+        {
+            length += read;
+            if (length == buffer.length)
+            {
+                byte[] newBuffer = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, newBuffer, 0, length);
+                buffer = newBuffer;
+            }
+        }
+        if (length == buffer.length)
+        {
+            return buffer;
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
 }
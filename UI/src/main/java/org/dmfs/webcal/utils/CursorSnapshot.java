@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import android.content.ContentResolver;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.Arrays;
+
+
+/**
+ * An immutable in-memory copy of the values of a {@link Cursor}. Each call to {@link #cursor()} returns a new {@link Cursor} with its own position on top of
+ * the same values, so a snapshot can be read by any number of threads at the same time without locking.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class CursorSnapshot
+{
+    private final String[] mColumnNames;
+    private final Object[] mValues;
+    private final int mCount;
+
+
+    private CursorSnapshot(String[] columnNames, Object[] values, int count)
+    {
+        mColumnNames = columnNames;
+        mValues = values;
+        mCount = count;
+    }
+
+
+    /**
+     * Copies the values of the given {@link Cursor}. This iterates the entire cursor, so don't call it on the main thread. The position of the cursor is
+     * restored afterwards.
+     *
+     * @param cursor
+     *         The {@link Cursor} to copy.
+     *
+     * @return A {@link CursorSnapshot} with the values of the cursor.
+     */
+    public static CursorSnapshot copy(Cursor cursor)
+    {
+        int columnCount = cursor.getColumnCount();
+        Object[] values = new Object[cursor.getCount() * columnCount];
+        int i = 0;
+        int position = cursor.getPosition();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext())
+        {
+            for (int column = 0; column < columnCount; ++column)
+            {
+                switch (cursor.getType(column))
+                {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[i++] = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[i++] = cursor.getDouble(column);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        values[i++] = cursor.getBlob(column);
+                        break;
+                    case Cursor.FIELD_TYPE_NULL:
+                        values[i++] = null;
+                        break;
+                    default:
+                        values[i++] = cursor.getString(column);
+                }
+            }
+        }
+        cursor.moveToPosition(position);
+        return new CursorSnapshot(cursor.getColumnNames(), values, i / Math.max(columnCount, 1));
+    }
+
+
+    /**
+     * Returns a new {@link Cursor} on the values of this snapshot.
+     *
+     * @return A {@link Cursor}.
+     */
+    public Cursor cursor()
+    {
+        return new SnapshotCursor(this);
+    }
+
+
+    /**
+     * Returns a new {@link Cursor} on the values of this snapshot that notifies its observers about changes of the given {@link Uri}, like the cursor this
+     * snapshot has been copied from.
+     *
+     * @param resolver
+     *         The {@link ContentResolver} to register with.
+     * @param notificationUri
+     *         The {@link Uri} to watch, may be <code>null</code>.
+     *
+     * @return A {@link Cursor}.
+     */
+    public Cursor cursor(ContentResolver resolver, Uri notificationUri)
+    {
+        Cursor cursor = new SnapshotCursor(this);
+        if (notificationUri != null)
+        {
+            cursor.setNotificationUri(resolver, notificationUri);
+        }
+        return cursor;
+    }
+
+
+    /**
+     * Returns the number of rows of this snapshot.
+     */
+    public int count()
+    {
+        return mCount;
+    }
+
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof CursorSnapshot))
+        {
+            return false;
+        }
+        CursorSnapshot other = (CursorSnapshot) o;
+        return mCount == other.mCount && Arrays.equals(mColumnNames, other.mColumnNames) && Arrays.deepEquals(mValues, other.mValues);
+    }
+
+
+    @Override
+    public int hashCode()
+    {
+        return mCount * 31 + Arrays.hashCode(mColumnNames);
+    }
+
+
+    /**
+     * A read-only {@link Cursor} on top of a {@link CursorSnapshot}.
+     */
+    private final static class SnapshotCursor extends AbstractCursor
+    {
+        private final CursorSnapshot mSnapshot;
+
+
+        SnapshotCursor(CursorSnapshot snapshot)
+        {
+            mSnapshot = snapshot;
+        }
+
+
+        @Override
+        public int getCount()
+        {
+            return mSnapshot.mCount;
+        }
+
+
+        @Override
+        public String[] getColumnNames()
+        {
+            return mSnapshot.mColumnNames;
+        }
+
+
+        @Override
+        public int getType(int column)
+        {
+            Object value = value(column);
+            if (value == null)
+            {
+                return FIELD_TYPE_NULL;
+            }
+            if (value instanceof Long)
+            {
+                return FIELD_TYPE_INTEGER;
+            }
+            if (value instanceof Double)
+            {
+                return FIELD_TYPE_FLOAT;
+            }
+            return value instanceof byte[] ? FIELD_TYPE_BLOB : FIELD_TYPE_STRING;
+        }
+
+
+        @Override
+        public String getString(int column)
+        {
+            Object value = value(column);
+            return value == null ? null : value.toString();
+        }
+
+
+        @Override
+        public short getShort(int column)
+        {
+            return (short) getLong(column);
+        }
+
+
+        @Override
+        public int getInt(int column)
+        {
+            return (int) getLong(column);
+        }
+
+
+        @Override
+        public long getLong(int column)
+        {
+            Object value = value(column);
+            if (value == null)
+            {
+                return 0;
+            }
+            return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+        }
+
+
+        @Override
+        public float getFloat(int column)
+        {
+            return (float) getDouble(column);
+        }
+
+
+        @Override
+        public double getDouble(int column)
+        {
+            Object value = value(column);
+            if (value == null)
+            {
+                return 0;
+            }
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+        }
+
+
+        @Override
+        public byte[] getBlob(int column)
+        {
+            Object value = value(column);
+            return value instanceof byte[] ? (byte[]) value : null;
+        }
+
+
+        @Override
+        public boolean isNull(int column)
+        {
+            return value(column) == null;
+        }
+
+
+        private Object value(int column)
+        {
+            return mSnapshot.mValues[mPos * mSnapshot.mColumnNames.length + column];
+        }
+    }
+}
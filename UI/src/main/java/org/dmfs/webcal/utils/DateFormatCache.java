@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.DateUtils;
+
+import org.dmfs.rfc5545.DateTime;
+
+import java.util.TimeZone;
+
+import androidx.collection.LruCache;
+
+
+/**
+ * A process wide cache of {@link TimeZone}s and formatted day titles. {@link TimeZone#getTimeZone(String)} and {@link DateUtils#formatDateTime(Context,
+ * long, int)} are rather expensive and get called with the same arguments over and over again.
+ * <p>
+ * Formatted values depend on the locale and the time zone of the device, so the cache is cleared whenever one of them changes.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public enum DateFormatCache
+{
+    INSTANCE;
+
+    /**
+     * The flags to format day titles with.
+     */
+    private final static int DAY_TITLE_FLAGS = DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_YEAR | DateUtils.FORMAT_SHOW_WEEKDAY
+            | DateUtils.FORMAT_ABBREV_WEEKDAY;
+
+    private final LruCache<String, TimeZone> mTimeZones = new LruCache<String, TimeZone>(64);
+
+    private final LruCache<Integer, String> mDayTitles = new LruCache<Integer, String>(512);
+
+    private boolean mRegistered;
+
+
+    /**
+     * Returns the {@link TimeZone} with the given id.
+     *
+     * @param id
+     *         A time zone id.
+     *
+     * @return The {@link TimeZone}. Don't modify it, the instance is shared.
+     */
+    public TimeZone timeZone(String id)
+    {
+        TimeZone timeZone = mTimeZones.get(id);
+        if (timeZone == null)
+        {
+            timeZone = TimeZone.getTimeZone(id);
+            mTimeZones.put(id, timeZone);
+        }
+        return timeZone;
+    }
+
+
+    /**
+     * Returns the title of the given day in the local time zone.
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param day
+     *         The day, encoded as <code>(year &lt;&lt; 16) + (month &lt;&lt; 8) + dayOfMonth</code>.
+     *
+     * @return The formatted day.
+     */
+    public String dayTitle(Context context, int day)
+    {
+        register(context);
+
+        String title = mDayTitles.get(day);
+        if (title == null)
+        {
+            DateTime start = new DateTime(TimeZone.getDefault(), (day >> 16) & 0x0ffff, (day >> 8) & 0x00ff, day & 0x00ff, 0, 0, 0);
+            title = DateUtils.formatDateTime(context, start.getTimestamp(), DAY_TITLE_FLAGS);
+            mDayTitles.put(day, title);
+        }
+        return title;
+    }
+
+
+    /**
+     * Removes all cached values.
+     */
+    public void evictAll()
+    {
+        mTimeZones.evictAll();
+        mDayTitles.evictAll();
+    }
+
+
+    /**
+     * Register a receiver that clears the cache when the locale or the time zone changes. Calling this more than once has no effect.
+     */
+    private void register(Context context)
+    {
+        synchronized (this)
+        {
+            if (mRegistered)
+            {
+                return;
+            }
+            mRegistered = true;
+        }
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        context.getApplicationContext().registerReceiver(new BroadcastReceiver()
+        {
+            @Override
+            public void onReceive(Context context, Intent intent)
+            {
+                evictAll();
+            }
+        }, filter);
+    }
+}
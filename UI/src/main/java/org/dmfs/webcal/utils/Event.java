@@ -33,6 +33,9 @@ import java.util.TimeZone;
  */
 public final class Event implements Comparable<Event>, Parcelable
 {
+    private final static int FLAG_START_ALLDAY = 1;
+    private final static int FLAG_END_ALLDAY = 2;
+
     /**
      * The start time of the event. This is already switched to the default time zone.
      */
@@ -91,20 +94,60 @@ public final class Event implements Comparable<Event>, Parcelable
     @Override
     public void writeToParcel(Parcel parcel, int flags)
     {
+        // start and end share the time zone, so it's written only once
         parcel.writeString(timezone);
-        parcel.writeLong(start.getTimestamp());
-        parcel.writeInt(start.isAllDay() ? 1 : 0);
+        writeBody(parcel);
+    }
 
-        parcel.writeString(timezone);
-        parcel.writeLong(end.getTimestamp());
-        parcel.writeInt(end.isAllDay() ? 1 : 0);
 
+    /**
+     * Writes everything but the time zone to the given {@link Parcel}.
+     *
+     * @param parcel
+     *         The {@link Parcel} to write to.
+     */
+    void writeBody(Parcel parcel)
+    {
+        parcel.writeLong(start.getTimestamp());
+        parcel.writeLong(end.getTimestamp());
+        parcel.writeInt((start.isAllDay() ? FLAG_START_ALLDAY : 0) | (end.isAllDay() ? FLAG_END_ALLDAY : 0));
         parcel.writeString(title);
         parcel.writeString(description);
         parcel.writeString(location);
     }
 
 
+    /**
+     * Reads an {@link Event} that has been written by {@link #writeBody(Parcel)}.
+     *
+     * @param source
+     *         The {@link Parcel} to read from.
+     * @param timeZone
+     *         The {@link TimeZone} of the event or <code>null</code> for floating events.
+     *
+     * @return The {@link Event}.
+     */
+    static Event readBody(Parcel source, TimeZone timeZone)
+    {
+        DateTime startTime = new DateTime(timeZone, source.readLong());
+        DateTime endTime = new DateTime(timeZone, source.readLong());
+        int flags = source.readInt();
+        if ((flags & FLAG_START_ALLDAY) != 0)
+        {
+            startTime = startTime.toAllDay();
+        }
+        if ((flags & FLAG_END_ALLDAY) != 0)
+        {
+            endTime = endTime.toAllDay();
+        }
+
+        String title = source.readString();
+        String description = source.readString();
+        String location = source.readString();
+        return new Event(startTime, endTime, title, description, location);
+    }
+
+
     public static final Parcelable.Creator<Event> CREATOR = new Creator<Event>()
     {
 
@@ -118,24 +161,8 @@ public final class Event implements Comparable<Event>, Parcelable
         @Override
         public Event createFromParcel(Parcel source)
         {
-            String startTz = source.readString();
-            DateTime startTime = new DateTime(startTz == null ? null : TimeZone.getTimeZone(startTz), source.readLong());
-            if (source.readInt() == 1)
-            {
-                startTime = startTime.toAllDay();
-            }
-
-            String endTz = source.readString();
-            DateTime endTime = new DateTime(endTz == null ? null : TimeZone.getTimeZone(endTz), source.readLong());
-            if (source.readInt() == 1)
-            {
-                endTime = endTime.toAllDay();
-            }
-
-            String title = source.readString();
-            String description = source.readString();
-            String location = source.readString();
-            return new Event(startTime, endTime, title, description, location);
+            String tz = source.readString();
+            return readBody(source, tz == null ? null : DateFormatCache.INSTANCE.timeZone(tz));
         }
     };
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+
+/**
+ * An immutable list of {@link Event}s that can be passed around in a {@link Bundle}. The time zones of the events are written only once per batch, so
+ * passing many events that share a time zone takes little more space than their text.
+ * <p>
+ * A batch also knows which of its events has been selected by the user.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class EventBatch implements Parcelable
+{
+    /**
+     * The number of bytes the events of a batch should not exceed in a {@link Parcel}, to stay well below the Binder transaction limit, which is shared by
+     * all transactions of the process.
+     */
+    public final static int MAX_PARCEL_SIZE = 100 * 1024;
+
+    private final Event[] mEvents;
+    private final int mSelection;
+
+
+    /**
+     * Create a batch of the given events.
+     *
+     * @param events
+     *         The {@link Event}s.
+     * @param selection
+     *         The position of the selected event.
+     */
+    public EventBatch(List<Event> events, int selection)
+    {
+        this(events.toArray(new Event[events.size()]), selection);
+    }
+
+
+    private EventBatch(Event[] events, int selection)
+    {
+        mEvents = events;
+        mSelection = selection;
+    }
+
+
+    /**
+     * Returns the position of the selected event.
+     */
+    public int selection()
+    {
+        return mSelection;
+    }
+
+
+    /**
+     * Returns the number of events in this batch.
+     */
+    public int size()
+    {
+        return mEvents.length;
+    }
+
+
+    /**
+     * Returns the event at the given position.
+     *
+     * @param position
+     *         The position of the event.
+     *
+     * @return The {@link Event}.
+     */
+    public Event get(int position)
+    {
+        return mEvents[position];
+    }
+
+
+    /**
+     * Returns the number of bytes the given event adds to a batch in a {@link Parcel}. The time zone table of the batch is not included, it takes just a few
+     * bytes per time zone.
+     *
+     * @param event
+     *         An {@link Event}.
+     *
+     * @return The number of bytes written by {@link #writeToParcel(Parcel, int)} for this event.
+     */
+    public static int parcelSize(Event event)
+    {
+        // the time zone index, start, end and flags, followed by the strings
+        return 4 + 8 + 8 + 4 + parcelSize(event.title) + parcelSize(event.description) + parcelSize(event.location);
+    }
+
+
+    @Override
+    public int describeContents()
+    {
+        return 0;
+    }
+
+
+    @Override
+    public void writeToParcel(Parcel parcel, int flags)
+    {
+        // build the time zone table
+        Map<String, Integer> timezoneIndex = new HashMap<String, Integer>(8);
+        String[] timezones = new String[mEvents.length];
+        for (Event event : mEvents)
+        {
+            if (event.timezone != null && !timezoneIndex.containsKey(event.timezone))
+            {
+                timezones[timezoneIndex.size()] = event.timezone;
+                timezoneIndex.put(event.timezone, timezoneIndex.size());
+            }
+        }
+
+        parcel.writeInt(timezoneIndex.size());
+        for (int i = 0, count = timezoneIndex.size(); i < count; ++i)
+        {
+            parcel.writeString(timezones[i]);
+        }
+
+        parcel.writeInt(mSelection);
+        parcel.writeInt(mEvents.length);
+        for (Event event : mEvents)
+        {
+            parcel.writeInt(event.timezone == null ? -1 : timezoneIndex.get(event.timezone));
+            event.writeBody(parcel);
+        }
+    }
+
+
+    public static final Parcelable.Creator<EventBatch> CREATOR = new Creator<EventBatch>()
+    {
+
+        @Override
+        public EventBatch[] newArray(int size)
+        {
+            return new EventBatch[size];
+        }
+
+
+        @Override
+        public EventBatch createFromParcel(Parcel source)
+        {
+            TimeZone[] timezones = new TimeZone[source.readInt()];
+            for (int i = 0; i < timezones.length; ++i)
+            {
+                timezones[i] = DateFormatCache.INSTANCE.timeZone(source.readString());
+            }
+
+            int selection = source.readInt();
+            Event[] events = new Event[source.readInt()];
+            for (int i = 0; i < events.length; ++i)
+            {
+                int timezone = source.readInt();
+                events[i] = Event.readBody(source, timezone < 0 ? null : timezones[timezone]);
+            }
+            return new EventBatch(events, selection);
+        }
+    };
+
+
+    /**
+     * Returns the number of bytes {@link Parcel#writeString(String)} writes for the given string, i.e. its length, followed by the UTF-16 characters and a
+     * terminating zero, padded to four bytes.
+     */
+    private static int parcelSize(String string)
+    {
+        return string == null ? 4 : 4 + (((string.length() + 1) * 2 + 3) & ~3);
+    }
+}
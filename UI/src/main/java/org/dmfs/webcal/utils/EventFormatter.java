@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import org.dmfs.rfc5545.DateTime;
+import org.dmfs.rfc5545.Duration;
+import org.dmfs.webcal.R;
+
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.TimeZone;
+
+
+/**
+ * Formats the dates and times of events, for the event list as well as for the event details. The {@link Formatter} and its buffer are reused for all
+ * calls.
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class EventFormatter
+{
+    /**
+     * The minimum duration of a timed event to show the end date in the list.
+     */
+    private final static Duration MULTI_DAY_EVENT = new Duration(1, 0, 12 * 3600);
+
+    /**
+     * The minimum duration of an all-day event to show the end date in the list.
+     */
+    private final static Duration MULTI_DAY_ALLDAY_EVENT = new Duration(1, 1, 0);
+
+    /**
+     * The duration to add to the end of an all-day event to get its last day.
+     */
+    private final static Duration MINUS_ONE_DAY = new Duration(-1, 1, 0);
+
+    private final static int DEFAULT_DETAIL_FLAGS = DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_WEEKDAY;
+    private final static int SHORT_DATE_FLAGS = DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_NO_YEAR | DateUtils.FORMAT_ABBREV_MONTH;
+
+    private final Context mContext;
+    private final String mAllDay;
+    private final StringBuilder mBuffer = new StringBuilder(64);
+    private final Formatter mFormatter = new Formatter(mBuffer, Locale.getDefault());
+
+
+    /**
+     * Create an {@link EventFormatter}.
+     *
+     * @param context
+     *         A {@link Context}.
+     */
+    public EventFormatter(Context context)
+    {
+        mContext = context;
+        mAllDay = context.getString(R.string.all_day);
+    }
+
+
+    /**
+     * Returns the start time of an event as shown in the event list.
+     *
+     * @param start
+     *         The start of the event.
+     * @param allday
+     *         Whether this is an all-day event.
+     *
+     * @return The formatted start time.
+     */
+    public String listStartTime(DateTime start, boolean allday)
+    {
+        return allday ? mAllDay : DateUtils.formatDateTime(mContext, start.getTimestamp(), DateUtils.FORMAT_SHOW_TIME);
+    }
+
+
+    /**
+     * Returns the end time of an event as shown in the event list.
+     *
+     * @param start
+     *         The start of the event.
+     * @param end
+     *         The end of the event.
+     * @param allday
+     *         Whether this is an all-day event.
+     *
+     * @return The formatted end time or <code>null</code> if the list doesn't show an end time for this event.
+     */
+    public String listEndTime(DateTime start, DateTime end, boolean allday)
+    {
+        if (!allday)
+        {
+            if (end.after(start.addDuration(MULTI_DAY_EVENT)))
+            {
+                return DateUtils.formatDateTime(mContext, end.getTimestamp(), SHORT_DATE_FLAGS) + "\n"
+                        + DateUtils.formatDateTime(mContext, end.getTimestamp(), DateUtils.FORMAT_SHOW_TIME);
+            }
+            return end.equals(start) ? null : DateUtils.formatDateTime(mContext, end.getTimestamp(), DateUtils.FORMAT_SHOW_TIME);
+        }
+
+        if (end.after(start.addDuration(MULTI_DAY_ALLDAY_EVENT)))
+        {
+            return DateUtils.formatDateTime(mContext, end.swapTimeZone(TimeZone.getDefault()).addDuration(MINUS_ONE_DAY).getTimestamp(), SHORT_DATE_FLAGS);
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns the date line of the details of an event.
+     *
+     * @param event
+     *         The {@link Event}.
+     *
+     * @return The formatted date.
+     */
+    public String detailDate(Event event)
+    {
+        int flags = detailFlags(event);
+        if (event.start.isAllDay())
+        {
+            // one day events just pass start as end
+            return range(event.start.getTimestamp(),
+                    event.start.addDuration(MULTI_DAY_ALLDAY_EVENT).before(event.end) ? event.end.getTimestamp() : event.start.getTimestamp(), flags, "UTC");
+        }
+
+        if (event.start.toAllDay().equals(event.end.toAllDay()))
+        {
+            // starts and ends on the same day
+            return range(event.start.getTimestamp(), event.start.getTimestamp(), flags, event.start.getTimeZone().getID());
+        }
+
+        // more than one day in between
+        return range(event.start.getTimestamp(), event.start.getTimestamp(), flags | DateUtils.FORMAT_SHOW_TIME, event.start.getTimeZone().getID()) + " -";
+    }
+
+
+    /**
+     * Returns the time line of the details of an event.
+     *
+     * @param event
+     *         The {@link Event}.
+     *
+     * @return The formatted time or <code>null</code> for all-day events.
+     */
+    public String detailTime(Event event)
+    {
+        if (event.start.isAllDay())
+        {
+            return null;
+        }
+
+        int flags = detailFlags(event);
+        if (event.start.toAllDay().equals(event.end.toAllDay()))
+        {
+            // starts and ends on the same day
+            return range(event.start.getTimestamp(), event.end.getTimestamp(),
+                    (flags & ~(DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_WEEKDAY)) | DateUtils.FORMAT_SHOW_TIME, event.start.getTimeZone().getID());
+        }
+
+        // more than one day in between
+        return range(event.end.getTimestamp(), event.end.getTimestamp(), flags | DateUtils.FORMAT_SHOW_TIME, event.start.getTimeZone().getID());
+    }
+
+
+    private int detailFlags(Event event)
+    {
+        int currentYear = DateTime.nowAndHere().getYear();
+        if (event.start.getYear() != currentYear || event.end.getYear() != currentYear)
+        {
+            return DEFAULT_DETAIL_FLAGS | DateUtils.FORMAT_SHOW_YEAR;
+        }
+        return DEFAULT_DETAIL_FLAGS;
+    }
+
+
+    private String range(long start, long end, int flags, String timezone)
+    {
+        mBuffer.setLength(0);
+        return DateUtils.formatDateRange(mContext, mFormatter, start, end, flags, timezone).toString();
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * A single file that contains many icons and an index to find them. The file is memory mapped, so icons can be read without opening a file per icon.
+ * <p>
+ * File format (big endian):
+ * </p>
+ * <pre>
+ * int     magic
+ * int     version
+ * int     number of icons (n)
+ * n times:
+ *   long  icon id (sorted ascending)
+ *   int   offset of the icon data from the start of the file
+ *   int   length of the icon data
+ * icon data
+ * </pre>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class IconPack
+{
+    private final static String TAG = "IconPack";
+
+    private final static int MAGIC = 0x49434f4e; // "ICON"
+    private final static int VERSION = 2;
+    private final static int HEADER_SIZE = 12;
+    private final static int INDEX_ENTRY_SIZE = 16;
+    private final static int COPY_BUFFER_SIZE = 8 * 1024;
+
+    private final MappedByteBuffer mBuffer;
+    private final int mCount;
+
+
+    private IconPack(MappedByteBuffer buffer, int count)
+    {
+        mBuffer = buffer;
+        mCount = count;
+    }
+
+
+    /**
+     * Map the given icon pack file.
+     * <p>
+     * Note: this method performs file system I/O, don't call it on the main thread.
+     * </p>
+     *
+     * @param file
+     *         The icon pack file.
+     *
+     * @return An {@link IconPack} or <code>null</code> if the file doesn't exist or is not a valid icon pack.
+     */
+    public static IconPack open(File file)
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        RandomAccessFile raf = null;
+        try
+        {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+            {
+                return null;
+            }
+
+            // the mapping stays valid after the channel has been closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            {
+                Log.w(TAG, "invalid icon pack " + file);
+                return null;
+            }
+            int count = buffer.getInt(8);
+            if (count < 0 || HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE > size)
+            {
+                Log.w(TAG, "invalid icon pack " + file);
+                return null;
+            }
+            return new IconPack(buffer, count);
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "could not open icon pack " + file, e);
+            return null;
+        }
+        finally
+        {
+            closeQuietly(raf);
+        }
+    }
+
+
+    /**
+     * Provides the data of the icons to write to an icon pack.
+     */
+    public interface Source
+    {
+        /**
+         * Write the data of the given icon to the given stream.
+         *
+         * @param iconId
+         *         The id of the icon.
+         * @param out
+         *         The {@link OutputStream} to write to.
+         *
+         * @throws IOException
+         *         If the data could not be read or written.
+         */
+        public void copyTo(long iconId, OutputStream out) throws IOException;
+    }
+
+
+    /**
+     * Write an icon pack file. The file is written to a temporary file first and replaces the given file atomically. The data of the icons is streamed from
+     * the given {@link Source} one icon at a time, so it never has to be in memory all at once.
+     *
+     * @param file
+     *         The icon pack file to write.
+     * @param iconIds
+     *         The ids of the icons.
+     * @param lengths
+     *         The lengths of the data of the icons, in the same order as the ids.
+     * @param source
+     *         The {@link Source} of the icon data.
+     *
+     * @throws IOException
+     *         If the file could not be written or the source didn't provide the announced number of bytes.
+     */
+    public static void write(File file, long[] iconIds, int[] lengths, Source source) throws IOException
+    {
+        // sort the entries by id
+        int count = iconIds.length;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; ++i)
+        {
+            order[i] = i;
+        }
+        final long[] ids = iconIds;
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer lhs, Integer rhs)
+            {
+                return ids[lhs] < ids[rhs] ? -1 : ids[lhs] > ids[rhs] ? 1 : 0;
+            }
+        });
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            int offset = HEADER_SIZE + count * INDEX_ENTRY_SIZE;
+            for (int i = 0; i < count; ++i)
+            {
+                int idx = order[i];
+                out.writeLong(iconIds[idx]);
+                out.writeInt(offset);
+                out.writeInt(lengths[idx]);
+                offset += lengths[idx];
+            }
+            for (int i = 0; i < count; ++i)
+            {
+                int idx = order[i];
+                int expected = out.size() + lengths[idx];
+                source.copyTo(iconIds[idx], out);
+                if (out.size() != expected)
+                {
+                    throw new IOException("unexpected length of icon " + iconIds[idx]);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            out.close();
+            tempFile.delete();
+            throw e;
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(file))
+        {
+            tempFile.delete();
+            throw new IOException("could not replace " + file);
+        }
+    }
+
+
+    /**
+     * Returns the number of icons in this pack.
+     */
+    public int size()
+    {
+        return mCount;
+    }
+
+
+    /**
+     * Returns the ids of all icons in this pack in ascending order.
+     */
+    public long[] iconIds()
+    {
+        long[] result = new long[mCount];
+        for (int i = 0; i < mCount; ++i)
+        {
+            result[i] = mBuffer.getLong(HEADER_SIZE + i * INDEX_ENTRY_SIZE);
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns whether this pack contains the given icon.
+     *
+     * @param iconId
+     *         The id of the icon.
+     *
+     * @return <code>true</code> if the icon is in this pack.
+     */
+    public boolean contains(long iconId)
+    {
+        return indexOf(iconId) >= 0;
+    }
+
+
+    /**
+     * Returns the length of the encoded data of the given icon.
+     *
+     * @param iconId
+     *         The id of the icon.
+     *
+     * @return The length in bytes or <code>-1</code> if the icon is not in this pack.
+     */
+    public int length(long iconId)
+    {
+        int index = indexOf(iconId);
+        return index < 0 ? -1 : mBuffer.getInt(HEADER_SIZE + index * INDEX_ENTRY_SIZE + 12);
+    }
+
+
+    /**
+     * Writes the encoded data of the given icon to the given stream. The data is copied in small chunks.
+     *
+     * @param iconId
+     *         The id of the icon.
+     * @param out
+     *         The {@link OutputStream} to write to.
+     *
+     * @throws IOException
+     *         If the icon is not in this pack or the data could not be written.
+     */
+    public void copyTo(long iconId, OutputStream out) throws IOException
+    {
+        int index = indexOf(iconId);
+        if (index < 0)
+        {
+            throw new IOException("icon " + iconId + " not in pack");
+        }
+
+        int entry = HEADER_SIZE + index * INDEX_ENTRY_SIZE;
+        int offset = mBuffer.getInt(entry + 8);
+        int length = mBuffer.getInt(entry + 12);
+        if (offset < 0 || length < 0 || (long) offset + length > mBuffer.capacity())
+        {
+            throw new IOException("invalid entry of icon " + iconId);
+        }
+
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset);
+        byte[] chunk = new byte[Math.min(length, COPY_BUFFER_SIZE)];
+        while (length > 0)
+        {
+            int n = Math.min(length, chunk.length);
+            buffer.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+            length -= n;
+        }
+    }
+
+
+    /**
+     * Returns the encoded data of the given icon.
+     *
+     * @param iconId
+     *         The id of the icon.
+     *
+     * @return The encoded icon or <code>null</code> if the icon is not in this pack.
+     */
+    public byte[] data(long iconId)
+    {
+        int index = indexOf(iconId);
+        if (index < 0)
+        {
+            return null;
+        }
+
+        int entry = HEADER_SIZE + index * INDEX_ENTRY_SIZE;
+        int offset = mBuffer.getInt(entry + 8);
+        int length = mBuffer.getInt(entry + 12);
+        if (offset < 0 || length < 0 || (long) offset + length > mBuffer.capacity())
+        {
+            return null;
+        }
+
+        byte[] result = new byte[length];
+        // use a duplicate, so concurrent readers don't interfere with each other's position
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset);
+        buffer.get(result);
+        return result;
+    }
+
+
+    /**
+     * Decode the given icon, so it fits into a square of the given size.
+     *
+     * @param iconId
+     *         The id of the icon.
+     * @param targetSize
+     *         The maximum width and height in pixels or <code>0</code> to keep the original size.
+     * @param opaque
+     *         Whether the icon is known to have no translucent pixels.
+     * @param pool
+     *         A {@link BitmapPool}.
+     *
+     * @return The {@link Bitmap} or <code>null</code> if the icon is not in this pack or could not be decoded.
+     */
+    public Bitmap decode(long iconId, int targetSize, boolean opaque, BitmapPool pool)
+    {
+        byte[] data = data(iconId);
+        return data == null ? null : BitmapUtils.decodeSampled(data, targetSize, opaque, pool);
+    }
+
+
+    /**
+     * Binary search for the given icon id in the index.
+     */
+    private int indexOf(long iconId)
+    {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            long midId = mBuffer.getLong(HEADER_SIZE + mid * INDEX_ENTRY_SIZE);
+            if (midId < iconId)
+            {
+                low = mid + 1;
+            }
+            else if (midId > iconId)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A size bounded file system cache for icons that have already been scaled to their target size. Entries are evicted in least-recently-used order once the
+ * total size of all files exceeds the maximum size of the cache.
+ * <p>
+ * The cache directory is resolved and the index is built lazily on first access, so instances can be created on the main thread.
+ * </p>
+ * <p>
+ * Images without alpha channel are marked as opaque by their file name, so they can be decoded in {@link Bitmap.Config#RGB_565}.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class ImageDiskCache
+{
+    private final static String TAG = "ImageDiskCache";
+
+    /**
+     * The suffix of the cache files.
+     */
+    private final static String SUFFIX = ".png";
+
+    /**
+     * The suffix of the cache files of opaque images.
+     */
+    private final static String OPAQUE_SUFFIX = ".opaque" + SUFFIX;
+
+    /**
+     * The application {@link Context}.
+     */
+    private final Context mAppContext;
+
+    /**
+     * The name of the directory that contains the cache files.
+     */
+    private final String mDirectoryName;
+
+    /**
+     * The directory that contains the cache files. This is initialized by {@link #init()}.
+     */
+    private File mDirectory;
+
+    /**
+     * The {@link BitmapPool} to decode images into.
+     */
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * The file names of all cache entries and their file sizes in access order.
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(64, 0.75f, true);
+
+    private long mMaxSize;
+    private long mSize;
+    private boolean mInitialized;
+    private int mHitCount;
+    private int mMissCount;
+
+
+    /**
+     * Create a new {@link ImageDiskCache} in the given directory.
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param directoryName
+     *         The name of the directory in the cache directory of the app to store the images in. It's created if it doesn't exist yet.
+     * @param maxSize
+     *         The maximum number of bytes this cache may occupy.
+     * @param bitmapPool
+     *         A {@link BitmapPool} to decode images into.
+     */
+    public ImageDiskCache(Context context, String directoryName, long maxSize, BitmapPool bitmapPool)
+    {
+        mAppContext = context.getApplicationContext();
+        mDirectoryName = directoryName;
+        mMaxSize = maxSize;
+        mBitmapPool = bitmapPool;
+    }
+
+
+    /**
+     * Returns the image with the given id and size or <code>null</code> if the image is not in the cache.
+     * <p>
+     * Note: this method performs file system I/O, don't call it on the main thread.
+     * </p>
+     *
+     * @param iconId
+     *         The id of the image.
+     * @param targetSize
+     *         The size the image has been scaled to.
+     *
+     * @return The {@link Bitmap} or <code>null</code>.
+     */
+    public Bitmap get(long iconId, int targetSize)
+    {
+        String name = fileName(iconId, targetSize, false);
+        String opaqueName = fileName(iconId, targetSize, true);
+        boolean opaque;
+        synchronized (this)
+        {
+            init();
+            opaque = mEntries.get(opaqueName) != null;
+            if (opaque)
+            {
+                name = opaqueName;
+            }
+            else if (mEntries.get(name) == null)
+            {
+                ++mMissCount;
+                return null;
+            }
+            ++mHitCount;
+        }
+
+        File file = new File(mDirectory, name);
+        Bitmap result = decode(file, opaque);
+        if (result == null)
+        {
+            // the file is broken or has been removed by the system, forget about it
+            remove(name);
+        }
+        else
+        {
+            // store the access time, so we can restore the LRU order when the process restarts
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns whether the image with the given id and size has been stored as an opaque image.
+     *
+     * @param iconId
+     *         The id of the image.
+     * @param targetSize
+     *         The size the image has been scaled to.
+     *
+     * @return <code>true</code> if the image is in the cache and opaque.
+     */
+    public synchronized boolean isOpaque(long iconId, int targetSize)
+    {
+        init();
+        return mEntries.get(fileName(iconId, targetSize, true)) != null;
+    }
+
+
+    /**
+     * Returns the file of the image with the given id and size. The file contains the scaled image in PNG format.
+     *
+     * @param iconId
+     *         The id of the image.
+     * @param targetSize
+     *         The size the image has been scaled to.
+     *
+     * @return The {@link File} or <code>null</code> if the image is not in the cache.
+     */
+    public synchronized File file(long iconId, int targetSize)
+    {
+        init();
+        String name = fileName(iconId, targetSize, true);
+        if (mEntries.get(name) == null)
+        {
+            name = fileName(iconId, targetSize, false);
+            if (mEntries.get(name) == null)
+            {
+                return null;
+            }
+        }
+        return new File(mDirectory, name);
+    }
+
+
+    /**
+     * Stores the given image in the cache. This may evict older entries.
+     * <p>
+     * Note: this method performs file system I/O, don't call it on the main thread.
+     * </p>
+     *
+     * @param iconId
+     *         The id of the image.
+     * @param targetSize
+     *         The size the image has been scaled to.
+     * @param bitmap
+     *         The scaled {@link Bitmap}.
+     */
+    public void put(long iconId, int targetSize, Bitmap bitmap)
+    {
+        boolean opaque = !bitmap.hasAlpha();
+        String name = fileName(iconId, targetSize, opaque);
+        synchronized (this)
+        {
+            init();
+            if (mDirectory == null)
+            {
+                return;
+            }
+        }
+
+        // write to a temporary file first, so readers never see incomplete files
+        File tempFile = new File(mDirectory, name + ".tmp" + Thread.currentThread().getId());
+        FileOutputStream out = null;
+        try
+        {
+            out = new FileOutputStream(tempFile);
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out))
+            {
+                tempFile.delete();
+                return;
+            }
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "could not store image with id " + iconId, e);
+            tempFile.delete();
+            return;
+        }
+        finally
+        {
+            closeQuietly(out);
+        }
+
+        synchronized (this)
+        {
+            File file = new File(mDirectory, name);
+            if (!tempFile.renameTo(file))
+            {
+                tempFile.delete();
+                return;
+            }
+            Long oldLength = mEntries.put(name, file.length());
+            mSize += file.length() - (oldLength == null ? 0 : oldLength);
+            // remove any entry with the other opacity
+            remove(fileName(iconId, targetSize, !opaque));
+            trimToSize(mMaxSize);
+        }
+    }
+
+
+    /**
+     * Evicts the least recently used entries until the cache size is below the given value. This doesn't change the maximum size of the cache.
+     *
+     * @param maxSize
+     *         The maximum size in bytes the cache should occupy after this call.
+     */
+    public synchronized void trimToSize(long maxSize)
+    {
+        init();
+        if (mDirectory == null)
+        {
+            return;
+        }
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext())
+        {
+            Map.Entry<String, Long> entry = iterator.next();
+            new File(mDirectory, entry.getKey()).delete();
+            mSize -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void evictAll()
+    {
+        trimToSize(-1);
+    }
+
+
+    /**
+     * Returns the number of bytes currently occupied by this cache.
+     */
+    public synchronized long size()
+    {
+        return mSize;
+    }
+
+
+    /**
+     * Returns the maximum number of bytes this cache may occupy.
+     */
+    public synchronized long maxSize()
+    {
+        return mMaxSize;
+    }
+
+
+    /**
+     * Returns the number of times {@link #get(long, int)} returned an image.
+     */
+    public synchronized int hitCount()
+    {
+        return mHitCount;
+    }
+
+
+    /**
+     * Returns the number of times {@link #get(long, int)} didn't find an image.
+     */
+    public synchronized int missCount()
+    {
+        return mMissCount;
+    }
+
+
+    private synchronized void remove(String name)
+    {
+        Long length = mEntries.remove(name);
+        if (length != null)
+        {
+            mSize -= length;
+            new File(mDirectory, name).delete();
+        }
+    }
+
+
+    /**
+     * Builds the index from the content of the cache directory, if that hasn't been done yet. Must be called with the lock held.
+     */
+    private void init()
+    {
+        if (mInitialized)
+        {
+            return;
+        }
+        mInitialized = true;
+
+        File directory = new File(mAppContext.getCacheDir(), mDirectoryName);
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            Log.e(TAG, "could not create cache directory " + directory);
+            return;
+        }
+        mDirectory = directory;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+
+        // restore the LRU order from the modification time of the files
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File lhs, File rhs)
+            {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : lhsModified > rhsModified ? 1 : 0;
+            }
+        });
+
+        for (File file : files)
+        {
+            if (file.getName().endsWith(SUFFIX))
+            {
+                long length = file.length();
+                mEntries.put(file.getName(), length);
+                mSize += length;
+            }
+            else
+            {
+                // a left over from an interrupted write
+                file.delete();
+            }
+        }
+    }
+
+
+    private Bitmap decode(File file, boolean opaque)
+    {
+        FileInputStream in = null;
+        try
+        {
+            in = new FileInputStream(file);
+            return BitmapUtils.decodeSampled(BitmapUtils.readFully(in), 0, opaque, mBitmapPool);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            closeQuietly(in);
+        }
+    }
+
+
+    private static String fileName(long iconId, int targetSize, boolean opaque)
+    {
+        return iconId + "_" + targetSize + (opaque ? OPAQUE_SUFFIX : SUFFIX);
+    }
+
+
+    private static void closeQuietly(Closeable stream)
+    {
+        if (stream != null)
+        {
+            try
+            {
+                stream.close();
+            }
+            catch (IOException e)
+            {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -19,20 +19,37 @@ package org.dmfs.webcal.utils;
 
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
-import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
 import org.dmfs.android.calendarcontent.provider.CalendarContentContract;
 
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Maintains a LIFO image download job queue. Download jobs added last will be started next.
+ * <p>
+ * Each job tries the {@link IconPack} first, then the disk cache and the icon cache of the content provider. Both are served by a pool of decoder threads. Icons that have not been
+ * cached by the content provider yet are handed to a separate pool of network threads and decoded once they have been downloaded. Workers take the next job
+ * from the queue as soon as they're done, only the results are posted to the main thread.
+ * </p>
+ * <p>
+ * Jobs that nobody waits for anymore are removed by {@link #removeJob(long, int)}. Jobs that have already been taken by a worker are dropped before any download or
+ * decoding work starts if the {@link ImageProxy} no longer has a request for them.
+ * </p>
+ * <p>
+ * Prefetch jobs added by {@link #addPrefetchJob(long, int)} have a lower priority. They're only served when there are no regular jobs waiting.
+ * </p>
  *
  * @author Arjun Naik
  * @author Marten Gajda <marten@dmfs.org>
@@ -40,10 +57,83 @@ import java.util.ArrayList;
 public class ImageLoaderQueue
 {
     private static final String TAG = "ImageLoaderQueue";
-    private ArrayList<Long> mDownloadJobQueue = new ArrayList<Long>(64);
-    private ImageLoaderTask mDownloader = null;
-    private ImageProxy mImageProxy;
-    private Context mContext;
+
+    /**
+     * The default number of threads to decode images.
+     */
+    private final static int DEFAULT_DECODE_THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 3));
+
+    /**
+     * The default number of threads to download images.
+     */
+    private final static int DEFAULT_FETCH_THREADS = 4;
+
+    /**
+     * The time in seconds idle threads are kept alive.
+     */
+    private final static int KEEP_ALIVE_TIME = 30;
+
+    /**
+     * Jobs waiting to be served from a cache.
+     */
+    private final LifoJobQueue mDecodeQueue = new LifoJobQueue();
+
+    /**
+     * Jobs waiting to be downloaded.
+     */
+    private final LifoJobQueue mFetchQueue = new LifoJobQueue();
+
+    private final ThreadPoolExecutor mDecodeExecutor;
+    private final ThreadPoolExecutor mFetchExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ImageProxy mImageProxy;
+    private final Context mContext;
+
+    /**
+     * A {@link Runnable} that serves the most recent job in {@link #mDecodeQueue}. It's executed once for each job that's added to the queue.
+     */
+    private final Runnable mDecodeWorker = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            LifoJobQueue.Job job;
+            int depth;
+            synchronized (mDecodeQueue)
+            {
+                job = mDecodeQueue.pop();
+                depth = mDecodeQueue.size();
+            }
+            if (job != null)
+            {
+                mImageProxy.metrics().onJobStarted(job.iconId, false, depth, System.nanoTime() - job.enqueueTime);
+                decode(job.iconId, job.targetSize, job.prefetch, true);
+            }
+        }
+    };
+
+    /**
+     * A {@link Runnable} that downloads the most recent job in {@link #mFetchQueue}. It's executed once for each job that's added to the queue.
+     */
+    private final Runnable mFetchWorker = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            LifoJobQueue.Job job;
+            int depth;
+            synchronized (mFetchQueue)
+            {
+                job = mFetchQueue.pop();
+                depth = mFetchQueue.size();
+            }
+            if (job != null)
+            {
+                mImageProxy.metrics().onJobStarted(job.iconId, true, depth, System.nanoTime() - job.enqueueTime);
+                fetch(job.iconId, job.targetSize, job.prefetch);
+            }
+        }
+    };
 
 
     /**
@@ -56,104 +146,245 @@ public class ImageLoaderQueue
      */
     public ImageLoaderQueue(Context context, ImageProxy imageProxy)
     {
-        mContext = context;
+        this(context, imageProxy, DEFAULT_DECODE_THREADS, DEFAULT_FETCH_THREADS);
+    }
+
+
+    /**
+     * Creates an {@link ImageLoaderQueue} with the given parallelism that notifies the given {@link ImageProxy} when an image has been loaded.
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param imageProxy
+     *         An {@link ImageProxy} to notify about finished jobs.
+     * @param decodeThreads
+     *         The maximum number of images to decode in parallel.
+     * @param fetchThreads
+     *         The maximum number of images to download in parallel.
+     */
+    public ImageLoaderQueue(Context context, ImageProxy imageProxy, int decodeThreads, int fetchThreads)
+    {
+        mContext = context.getApplicationContext();
         mImageProxy = imageProxy;
+        mDecodeExecutor = newExecutor(decodeThreads, "ImageDecoder");
+        mFetchExecutor = newExecutor(fetchThreads, "ImageFetcher");
     }
 
 
     /**
-     * Append a job for the given iconId at the end of the queue to ensure it will be loaded next.
+     * Put a job for the given iconId on top of the queue to ensure it will be loaded next.
      *
      * @param iconId
      *         The id of the image to load.
+     * @param targetSize
+     *         The size in pixels to scale the image to or <code>0</code> to keep the original size.
      */
-    public void addJob(long iconId)
+    public void addJob(long iconId, int targetSize)
     {
-        synchronized (mDownloadJobQueue)
+        boolean added;
+        synchronized (mDecodeQueue)
         {
-            // remove any existing job
-            mDownloadJobQueue.remove(iconId);
-
-            // re-queue as the next job
-            mDownloadJobQueue.add(iconId);
+            added = mDecodeQueue.push(iconId, targetSize);
+        }
 
-            if (mDownloader == null)
-            {
-                scheduleJob();
-            }
+        if (added)
+        {
+            // existing jobs have just been moved to the top, they already have a worker
+            mDecodeExecutor.execute(mDecodeWorker);
         }
     }
 
 
     /**
-     * Schedule a download job. The last job in the queue will be downloaded next.
+     * Add a low priority job for the given iconId. It will be loaded when there are no regular jobs waiting.
+     *
+     * @param iconId
+     *         The id of the image to load.
+     * @param targetSize
+     *         The size in pixels to scale the image to or <code>0</code> to keep the original size.
      */
-    private void scheduleJob()
+    public void addPrefetchJob(long iconId, int targetSize)
     {
-        synchronized (mDownloadJobQueue)
+        boolean added;
+        synchronized (mDecodeQueue)
         {
-            if (mDownloadJobQueue.size() > 0)
-            {
-                int last = mDownloadJobQueue.size() - 1;
-                Long iconId = mDownloadJobQueue.get(last);
-                mDownloadJobQueue.remove(last);
-                mDownloader = new ImageLoaderTask(iconId);
-                mDownloader.execute();
-            }
-            else
-            {
-                mDownloader = null;
-            }
+            added = mDecodeQueue.push(iconId, targetSize, true);
+        }
+
+        if (added)
+        {
+            mDecodeExecutor.execute(mDecodeWorker);
         }
     }
 
 
     /**
-     * An AsyncTask that loads an image from a content provider.
+     * Remove the job for the given iconId and size from the queue, if it hasn't been started yet.
+     *
+     * @param iconId
+     *         The id of the image that's no longer needed.
+     * @param targetSize
+     *         The size in pixels the image was requested at.
      */
-    private class ImageLoaderTask extends AsyncTask<Void, Integer, Drawable>
+    public void removeJob(long iconId, int targetSize)
     {
-        /**
-         * The id of the image to load.
-         */
-        private long mIconId;
+        synchronized (mDecodeQueue)
+        {
+            mDecodeQueue.remove(iconId, targetSize);
+        }
+        synchronized (mFetchQueue)
+        {
+            mFetchQueue.remove(iconId, targetSize);
+        }
+    }
 
 
-        public ImageLoaderTask(long iconId)
+    /**
+     * Load the given image from the icon pack, the disk cache or the icon cache of the content provider. If it's in neither of them it's queued for download.
+     */
+    private void decode(long iconId, int targetSize, boolean prefetch, boolean fetchIfMissing)
+    {
+        if (prefetch ? mImageProxy.isCached(iconId, targetSize) : !mImageProxy.isRequested(iconId, targetSize))
         {
-            mIconId = iconId;
+            // the image has been loaded already or the request has been cancelled in the meantime
+            return;
         }
 
+        IconPack iconPack = mImageProxy.iconPack();
+        // the pack holds the icons already scaled to the size they were displayed at
+        Bitmap result = iconPack == null ? null : iconPack.decode(ImageProxy.cacheKey(iconId, targetSize), 0, mImageProxy.isOpaque(iconId, targetSize),
+                mImageProxy.bitmapPool());
+        if (result != null)
+        {
+            deliver(iconId, targetSize, result);
+            return;
+        }
 
-        @Override
-        protected Drawable doInBackground(Void... params)
+        ImageDiskCache diskCache = mImageProxy.diskCache();
+        result = diskCache.get(iconId, targetSize);
+        if (result != null)
+        {
+            // the disk cache knows the opacity from the file name
+            mImageProxy.setOpaque(iconId, !result.hasAlpha());
+            mImageProxy.addIconPackCandidate(iconId, targetSize);
+        }
+        else
         {
             try
             {
-                AssetFileDescriptor afd = CalendarContentContract.Icon.getIcon(mContext, mIconId, true);
-                FileInputStream inputStream = afd.createInputStream();
-                return Drawable.createFromStream(inputStream, null);
+                result = mImageProxy.loadIcon(iconId, targetSize);
+                if (result != null)
+                {
+                    diskCache.put(iconId, targetSize, result);
+                    mImageProxy.addIconPackCandidate(iconId, targetSize);
+                }
             }
             catch (FileNotFoundException e)
             {
-                Log.e(TAG, "could not load image with id " + mIconId);
-                return null;
+                if (fetchIfMissing)
+                {
+                    boolean added;
+                    synchronized (mFetchQueue)
+                    {
+                        added = mFetchQueue.push(iconId, targetSize, prefetch);
+                    }
+                    if (added)
+                    {
+                        mFetchExecutor.execute(mFetchWorker);
+                    }
+                    return;
+                }
+                Log.e(TAG, "could not load image with id " + iconId);
             }
             catch (IOException e)
             {
-                Log.e(TAG, "could not load image with id " + mIconId);
-                return null;
+                Log.e(TAG, "could not load image with id " + iconId);
             }
         }
+        deliver(iconId, targetSize, result);
+    }
 
 
-        @Override
-        protected void onPostExecute(Drawable result)
+    /**
+     * Download the given image into the icon cache of the content provider and hand it back to the decoder threads.
+     */
+    private void fetch(final long iconId, final int targetSize, final boolean prefetch)
+    {
+        if (!prefetch && !mImageProxy.isRequested(iconId, targetSize))
+        {
+            // the request has been cancelled in the meantime
+            return;
+        }
+
+        try
+        {
+            AssetFileDescriptor afd = CalendarContentContract.Icon.getIcon(mContext, iconId, true);
+            afd.close();
+        }
+        catch (IOException e)
         {
-            mImageProxy.imageReady(mIconId, result);
-            scheduleJob();
+            Log.e(TAG, "could not download image with id " + iconId);
+            deliver(iconId, targetSize, null);
+            return;
         }
 
+        mDecodeExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                decode(iconId, targetSize, prefetch, false);
+            }
+        });
     }
 
+
+    /**
+     * Publish the result to the {@link ImageProxy} and notify the listeners on the main thread.
+     */
+    void deliver(final long iconId, final int targetSize, final Bitmap result)
+    {
+        final Object listeners = mImageProxy.publish(iconId, targetSize, result);
+        if (listeners == null || result == null)
+        {
+            // nobody to notify
+            return;
+        }
+
+        mMainHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mImageProxy.notifyListeners(iconId, result, listeners);
+            }
+        });
+    }
+
+
+    private static ThreadPoolExecutor newExecutor(int threads, final String name)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory()
+                {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+
+                    @Override
+                    public Thread newThread(final Runnable runnable)
+                    {
+                        return new Thread(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, name + " #" + mCount.getAndIncrement());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
@@ -17,36 +17,110 @@
 
 package org.dmfs.webcal.utils;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.content.res.AssetFileDescriptor;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
 
 import org.dmfs.android.calendarcontent.provider.CalendarContentContract;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import androidx.collection.LongSparseArray;
 import androidx.collection.LruCache;
 
 
 /**
  * A singleton that caches images and takes care of loading them from the content provider if necessary.
+ * <p>
+ * Images are cached in two tiers. The memory tier holds decoded {@link Bitmap}s and is sized as a fraction of the memory class of the device. The disk tier
+ * holds images that have already been scaled to the size they are displayed at, so they don't need to be decoded at full size again.
+ * </p>
+ * <p>
+ * In addition, scaled icons that have been displayed are collected in an {@link IconPack}, a single memory mapped file that serves icons without opening a
+ * file per icon. That's checked before any other file, so the first screen can be painted from a single file. The pack is rewritten in the background when
+ * the UI is hidden, at most every few minutes.
+ * </p>
+ * <p>
+ * Apps can register {@link Metrics} by {@link #setMetrics(Metrics)} to see how the image pipeline performs.
+ * </p>
+ * <p>
+ * The proxy registers itself for {@link ComponentCallbacks2} and sheds memory in proportion to the trim level the system reports. At
+ * {@link ComponentCallbacks2#TRIM_MEMORY_COMPLETE} the disk cache is cut back to half of its size as well.
+ * </p>
  *
  * @author Arjun Naik
  * @author Marten Gajda <marten@dmfs.org>
  */
-public class ImageProxy
+public class ImageProxy implements ComponentCallbacks2
 {
+    private final static String TAG = "ImageProxy";
+
+    /**
+     * The icon id that stands for "no icon". All other ids are valid.
+     */
+    public final static long NO_ICON = -1;
+
+    /**
+     * The fraction of the memory class to use for the memory cache.
+     */
+    private final static int MEMORY_CACHE_FRACTION = 8;
+
+    /**
+     * The fraction of the memory class to use for the memory cache on low RAM devices.
+     */
+    private final static int LOW_RAM_MEMORY_CACHE_FRACTION = 16;
+
+    /**
+     * The maximum size taken by the disk cache.
+     */
+    private final static long DISK_CACHE_SIZE = 10 * 1024 * 1024; // 10MB
+
+    /**
+     * The maximum size taken by the pool of reusable bitmaps.
+     */
+    private final static int BITMAP_POOL_SIZE = 2 * 1024 * 1024; // 2MB
+
+    /**
+     * The name of the disk cache directory.
+     */
+    private final static String DISK_CACHE_DIRECTORY = "icons";
+
     /**
-     * The maximum size taken by the image cache.
+     * The name of the icon pack file.
      */
-    private final static int IMAGE_CACHE_SIZE = 1024 * 1024; // 1MB
+    private final static String ICON_PACK_FILE = "icons.pack";
+
+    /**
+     * The maximum size of the icon data in the icon pack.
+     */
+    private final static int ICON_PACK_SIZE = 4 * 1024 * 1024; // 4MB
+
+    /**
+     * The maximum number of images to remember for the next icon pack update.
+     */
+    private final static int ICON_PACK_MAX_CANDIDATES = 512;
+
+    /**
+     * The minimum time in milliseconds between two icon pack updates.
+     */
+    private final static long ICON_PACK_UPDATE_INTERVAL = 10 * 60 * 1000; // 10 minutes
 
     /**
      * The one and only instance of the {@link ImageProxy}.
@@ -54,9 +128,19 @@ public class ImageProxy
     private static ImageProxy mInstance;
 
     /**
-     * The actual cache for the images.
+     * The memory cache for the images.
      */
-    private ImageCache mImageCache = new ImageCache(IMAGE_CACHE_SIZE);
+    private final ImageCache mImageCache;
+
+    /**
+     * The disk cache for the scaled images.
+     */
+    private final ImageDiskCache mDiskCache;
+
+    /**
+     * The pool of intermediate bitmaps of the decoding pipeline.
+     */
+    private final BitmapPool mBitmapPool = new BitmapPool(BITMAP_POOL_SIZE);
 
     /**
      * The {@link ImageLoaderQueue} to load the images.
@@ -64,9 +148,46 @@ public class ImageProxy
     private ImageLoaderQueue mLoader;
 
     /**
-     * {@link Map} of image ids to {@link Set}s of {@link ImageAvailableListener}s for that specific image.
+     * The {@link ImageAvailableListener}s waiting for images. This also serves as the lock that makes looking up the memory cache and registering a request,
+     * as well as publishing a result and draining its listeners, atomic operations.
      */
-    private HashMap<Long, Set<WeakReference<ImageAvailableListener>>> mJobWaitQueue = new HashMap<Long, Set<WeakReference<ImageAvailableListener>>>();
+    private final ImageRequestRegistry mRequests = new ImageRequestRegistry();
+
+    /**
+     * The current {@link IconPack} or <code>null</code> if there is none. This is initialized by {@link #iconPack()}.
+     */
+    private IconPack mIconPack;
+
+    /**
+     * Whether the icon pack file has been opened already.
+     */
+    private boolean mIconPackOpened;
+
+    /**
+     * Whether an update of the icon pack is in progress.
+     */
+    private final AtomicBoolean mIconPackUpdating = new AtomicBoolean();
+
+    /**
+     * The cache keys of the images to add to the icon pack with the next update. This also serves as the lock for {@link #mIconPackUpdated}.
+     */
+    private final LongSparseArray<Boolean> mIconPackCandidates = new LongSparseArray<Boolean>();
+
+    /**
+     * Whether the icons with the given ids are opaque. The opacity is determined on the first decode of an icon, so later decodes can use
+     * {@link Bitmap.Config#RGB_565} for opaque icons, no matter where the icon is decoded from.
+     */
+    private final LongSparseArray<Boolean> mOpacity = new LongSparseArray<Boolean>();
+
+    /**
+     * The time of the last icon pack update in milliseconds since boot or <code>0</code> if there was none yet.
+     */
+    private long mIconPackUpdated;
+
+    /**
+     * The {@link Metrics} to report to.
+     */
+    private volatile Metrics mMetrics = NO_METRICS;
 
     /**
      * The application {@link Context}.
@@ -83,6 +204,134 @@ public class ImageProxy
     }
 
 
+    /**
+     * Receives measurements of the image pipeline. Methods may be called on any thread, some of them while internal locks are held, so implementations must
+     * return quickly and must not call back into the {@link ImageProxy}.
+     */
+    public interface Metrics
+    {
+        /**
+         * Called for every lookup of the memory cache by {@link #getImage(long, int, ImageAvailableListener)}.
+         *
+         * @param iconId
+         *         The id of the image.
+         * @param hit
+         *         Whether the image has been found in the memory cache.
+         */
+        public void onMemoryCacheLookup(long iconId, boolean hit);
+
+        /**
+         * Called for every lookup of the icon cache of the content provider.
+         *
+         * @param iconId
+         *         The id of the image.
+         * @param hit
+         *         Whether the image has been cached by the content provider or needs to be downloaded.
+         */
+        public void onProviderCacheLookup(long iconId, boolean hit);
+
+        /**
+         * Called when an image has been read from the icon cache of the content provider.
+         *
+         * @param iconId
+         *         The id of the image.
+         * @param bytes
+         *         The size of the encoded image.
+         * @param nanos
+         *         The time it took to read the image in nanoseconds.
+         */
+        public void onProviderRead(long iconId, int bytes, long nanos);
+
+        /**
+         * Called when an image read from the content provider has been decoded and scaled.
+         *
+         * @param iconId
+         *         The id of the image.
+         * @param nanos
+         *         The time it took to decode the image in nanoseconds.
+         */
+        public void onDecode(long iconId, long nanos);
+
+        /**
+         * Called when a worker of the {@link ImageLoaderQueue} takes a job from its queue.
+         *
+         * @param iconId
+         *         The id of the image.
+         * @param download
+         *         Whether this is a download job or a decode job.
+         * @param queueDepth
+         *         The number of jobs still waiting in the same queue.
+         * @param waitNanos
+         *         The time the job has been waiting in the queue in nanoseconds.
+         */
+        public void onJobStarted(long iconId, boolean download, int queueDepth, long waitNanos);
+
+        /**
+         * Called when an image has been evicted from the memory cache.
+         *
+         * @param bytes
+         *         The number of bytes that have been freed.
+         */
+        public void onMemoryCacheEviction(int bytes);
+
+        /**
+         * Called when a loaded image could not be delivered to a listener, because the listener has been garbage collected.
+         *
+         * @param iconId
+         *         The id of the image.
+         */
+        public void onDeadListener(long iconId);
+    }
+
+
+    /**
+     * {@link Metrics} that drop all measurements.
+     */
+    private final static Metrics NO_METRICS = new Metrics()
+    {
+        @Override
+        public void onMemoryCacheLookup(long iconId, boolean hit)
+        {
+        }
+
+
+        @Override
+        public void onProviderCacheLookup(long iconId, boolean hit)
+        {
+        }
+
+
+        @Override
+        public void onProviderRead(long iconId, int bytes, long nanos)
+        {
+        }
+
+
+        @Override
+        public void onDecode(long iconId, long nanos)
+        {
+        }
+
+
+        @Override
+        public void onJobStarted(long iconId, boolean download, int queueDepth, long waitNanos)
+        {
+        }
+
+
+        @Override
+        public void onMemoryCacheEviction(int bytes)
+        {
+        }
+
+
+        @Override
+        public void onDeadListener(long iconId)
+        {
+        }
+    };
+
+
     /**
      * Get an {@link ImageProxy} instance.
      *
@@ -104,13 +353,36 @@ public class ImageProxy
     private ImageProxy(Context c)
     {
         mAppContext = c.getApplicationContext();
+        mImageCache = new ImageCache(memoryCacheSize(mAppContext));
+        mDiskCache = new ImageDiskCache(mAppContext, DISK_CACHE_DIRECTORY, DISK_CACHE_SIZE, mBitmapPool);
         mLoader = new ImageLoaderQueue(c, this);
+        mAppContext.registerComponentCallbacks(this);
+    }
+
+
+    /**
+     * Returns the size of the memory cache for this device. That's a fraction of the heap the app may use, so devices with large heaps cache more images.
+     *
+     * @param context
+     *         The application {@link Context}.
+     *
+     * @return The maximum number of bytes the memory cache should occupy.
+     */
+    private static int memoryCacheSize(Context context)
+    {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean largeHeap = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
+        int memoryClass = largeHeap ? activityManager.getLargeMemoryClass() : activityManager.getMemoryClass();
+        return memoryClass * 1024 * 1024 / (activityManager.isLowRamDevice() ? LOW_RAM_MEMORY_CACHE_FRACTION : MEMORY_CACHE_FRACTION);
     }
 
 
     /**
-     * Return the image with then given id. If the icon is not present in the memory or filesystem cache this method returns <code>null</code>. The caller is
-     * notified via the given {@link ImageAvailableListener} when the image has been loaded.
+     * Return the image with then given id. If the icon is not present in the memory cache this method returns <code>null</code>. The caller is notified via
+     * the given {@link ImageAvailableListener} when the image has been loaded.
+     * <p>
+     * This method never blocks. Anything that has to touch the file system or the content provider is done in the background.
+     * </p>
      *
      * @param iconId
      *         The id of the icon to load.
@@ -121,113 +393,765 @@ public class ImageProxy
      */
     public Drawable getImage(long iconId, ImageAvailableListener callback)
     {
-        if (iconId == -1)
+        return getImage(iconId, 0, callback);
+    }
+
+
+    /**
+     * Return the image with then given id scaled to fit into a square of the given size. If the icon is not present in the memory cache this method returns
+     * <code>null</code>. The caller is notified via the given {@link ImageAvailableListener} when the image has been loaded.
+     * <p>
+     * This method never blocks. Anything that has to touch the file system or the content provider is done in the background, so it's safe to call it while
+     * binding list items.
+     * </p>
+     *
+     * @param iconId
+     *         The id of the icon to load.
+     * @param targetSize
+     *         The size in pixels the icon is displayed at or <code>0</code> to load the icon in its original size.
+     * @param callback
+     *         The {@link ImageAvailableListener} to notify when the icon has been loaded.
+     *
+     * @return A {@link Drawable} or null of the icon is loaded asynchronously or the id is invalid.
+     */
+    public Drawable getImage(long iconId, int targetSize, ImageAvailableListener callback)
+    {
+        if (iconId == NO_ICON)
         {
             return null;
         }
 
-        Drawable iconDrawable = mImageCache.get(iconId);
-        if (iconDrawable == null)
+        Bitmap bitmap;
+        synchronized (mRequests)
         {
-            try
+            bitmap = mImageCache.get(cacheKey(iconId, targetSize));
+            mMetrics.onMemoryCacheLookup(iconId, bitmap != null);
+            if (bitmap == null)
             {
-                AssetFileDescriptor afd = CalendarContentContract.Icon.getIcon(mAppContext, iconId, false);
-                FileInputStream inputStream = afd.createInputStream();
-                iconDrawable = Drawable.createFromStream(inputStream, null);
-                if (iconDrawable != null)
+                // the disk cache, the content provider and the network are only accessed in the background
+                if (mRequests.add(cacheKey(iconId, targetSize), callback))
                 {
-                    mImageCache.put(iconId, iconDrawable);
+                    mLoader.addJob(iconId, targetSize);
                 }
+                return null;
             }
-            catch (FileNotFoundException e)
+        }
+        return new BitmapDrawable(mAppContext.getResources(), bitmap);
+    }
+
+
+    /**
+     * Sets the {@link Metrics} to report measurements of the image pipeline to.
+     *
+     * @param metrics
+     *         The {@link Metrics} or <code>null</code> to stop reporting.
+     */
+    public void setMetrics(Metrics metrics)
+    {
+        mMetrics = metrics == null ? NO_METRICS : metrics;
+    }
+
+
+    /**
+     * Returns the current {@link Metrics}, never <code>null</code>.
+     */
+    Metrics metrics()
+    {
+        return mMetrics;
+    }
+
+
+    /**
+     * Cancel a request for an image in its original size that has been made by {@link #getImage(long, ImageAvailableListener)}.
+     *
+     * @param iconId
+     *         The id of the image that's no longer needed.
+     * @param callback
+     *         The {@link ImageAvailableListener} that has requested the image.
+     *
+     * @see #cancel(long, int, ImageAvailableListener)
+     */
+    public void cancel(long iconId, ImageAvailableListener callback)
+    {
+        cancel(iconId, 0, callback);
+    }
+
+
+    /**
+     * Cancel a request for an image that has been made by {@link #getImage(long, int, ImageAvailableListener)}. The given listener won't be notified about
+     * this image anymore. If no other listener waits for the image in this size, it's removed from the loader queue, so it's neither downloaded nor decoded.
+     *
+     * @param iconId
+     *         The id of the image that's no longer needed.
+     * @param targetSize
+     *         The size in pixels the image has been requested at.
+     * @param callback
+     *         The {@link ImageAvailableListener} that has requested the image.
+     */
+    public void cancel(long iconId, int targetSize, ImageAvailableListener callback)
+    {
+        synchronized (mRequests)
+        {
+            if (mRequests.remove(cacheKey(iconId, targetSize), callback))
             {
-                registerImageRequest(iconId, callback);
+                mLoader.removeJob(iconId, targetSize);
             }
-            catch (IOException e)
+        }
+    }
+
+
+    /**
+     * Load the given icons in the background with low priority, so they are in the memory cache by the time they're displayed. Requests made by {@link
+     * #getImage(long, int, ImageAvailableListener)} always take precedence.
+     *
+     * @param iconIds
+     *         The ids of the icons to load. {@link #NO_ICON} entries are ignored.
+     * @param targetSize
+     *         The size in pixels the icons are displayed at or <code>0</code> for icons in their original size.
+     */
+    public void prefetch(long[] iconIds, int targetSize)
+    {
+        // add in reverse order, so the first icons are loaded first
+        for (int i = iconIds.length - 1; i >= 0; --i)
+        {
+            if (iconIds[i] != NO_ICON)
+            {
+                mLoader.addPrefetchJob(iconIds[i], targetSize);
+            }
+        }
+    }
+
+
+    /**
+     * Load the icons in the given column of a {@link Cursor} in the background with low priority. The position of the cursor is restored afterwards.
+     *
+     * @param cursor
+     *         A {@link Cursor}, may be <code>null</code>.
+     * @param iconColumn
+     *         The index of the column that contains the icon ids.
+     * @param targetSize
+     *         The size in pixels the icons are displayed at or <code>0</code> for icons in their original size.
+     *
+     * @see #prefetch(long[], int)
+     */
+    public void prefetch(Cursor cursor, int iconColumn, int targetSize)
+    {
+        if (cursor == null || iconColumn < 0)
+        {
+            return;
+        }
+
+        int position = cursor.getPosition();
+        long[] iconIds = new long[cursor.getCount()];
+        int count = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext())
+        {
+            if (!cursor.isNull(iconColumn))
             {
-                registerImageRequest(iconId, callback);
+                iconIds[count++] = cursor.getLong(iconColumn);
             }
         }
-        return iconDrawable;
+        cursor.moveToPosition(position);
+
+        prefetch(count == iconIds.length ? iconIds : Arrays.copyOf(iconIds, count), targetSize);
     }
 
 
     /**
-     * Registers an image for asynchronous loading.
+     * Remembers the given image as a candidate for the next {@link IconPack}. The image must be in the disk cache, that's where the pack takes the scaled
+     * image from.
      *
      * @param iconId
-     *         The icon id to load.
-     * @param callback
-     *         The {@link ImageAvailableListener} to notify when the image has been loaded.
+     *         The id of the image.
+     * @param targetSize
+     *         The size in pixels of the image.
      */
-    private void registerImageRequest(long iconId, ImageAvailableListener callback)
+    void addIconPackCandidate(long iconId, int targetSize)
     {
-        synchronized (mJobWaitQueue)
+        long key = cacheKey(iconId, targetSize);
+        IconPack iconPack = iconPack();
+        if (iconPack != null && iconPack.contains(key))
         {
-            if (mJobWaitQueue.containsKey(iconId))
+            return;
+        }
+        synchronized (mIconPackCandidates)
+        {
+            if (mIconPackCandidates.size() < ICON_PACK_MAX_CANDIDATES)
             {
-                Set<WeakReference<ImageAvailableListener>> listeners = mJobWaitQueue.get(iconId);
-                listeners.add(new WeakReference<ImageProxy.ImageAvailableListener>(callback));
+                mIconPackCandidates.put(key, Boolean.TRUE);
             }
-            else
+        }
+    }
+
+
+    /**
+     * Adds the collected candidates to the {@link IconPack} in the background. The pack is rewritten at most once per {@link #ICON_PACK_UPDATE_INTERVAL} and
+     * only if there are candidates.
+     */
+    private void updateIconPack()
+    {
+        long now = SystemClock.elapsedRealtime();
+        final long[] candidates;
+        synchronized (mIconPackCandidates)
+        {
+            if (mIconPackCandidates.size() == 0 || mIconPackUpdated != 0 && now - mIconPackUpdated < ICON_PACK_UPDATE_INTERVAL
+                    || !mIconPackUpdating.compareAndSet(false, true))
+            {
+                return;
+            }
+            mIconPackUpdated = now;
+            candidates = new long[mIconPackCandidates.size()];
+            for (int i = 0; i < candidates.length; ++i)
             {
-                Set<WeakReference<ImageAvailableListener>> listeners = new HashSet<WeakReference<ImageAvailableListener>>();
-                listeners.add(new WeakReference<ImageProxy.ImageAvailableListener>(callback));
-                mJobWaitQueue.put(iconId, listeners);
-                mLoader.addJob(iconId);
+                candidates[i] = mIconPackCandidates.keyAt(i);
             }
+            mIconPackCandidates.clear();
         }
+
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    writeIconPack(candidates);
+                }
+                finally
+                {
+                    mIconPackUpdating.set(false);
+                }
+            }
+        });
     }
 
 
     /**
-     * Notify the {@link ImageProxy} that an image has been loaded.
+     * Returns whether the given image is in the memory cache.
+     *
+     * @param iconId
+     *         The id of the image.
+     * @param targetSize
+     *         The size in pixels of the image.
+     *
+     * @return <code>true</code> if the image is in the memory cache.
+     */
+    boolean isCached(long iconId, int targetSize)
+    {
+        return mImageCache.get(cacheKey(iconId, targetSize)) != null;
+    }
+
+
+    /**
+     * Returns whether anyone still waits for the given image in the given size.
+     *
+     * @param iconId
+     *         The id of the image.
+     * @param targetSize
+     *         The size in pixels of the image.
+     *
+     * @return <code>true</code> if there is a pending request for the image.
+     */
+    boolean isRequested(long iconId, int targetSize)
+    {
+        synchronized (mRequests)
+        {
+            return mRequests.contains(cacheKey(iconId, targetSize));
+        }
+    }
+
+
+    /**
+     * Loads the given icons from the disk cache into the memory cache in the background. Icons that are not in the disk cache are ignored. Icons are
+     * published like any other loaded image, so listeners that are waiting for them are notified.
+     *
+     * @param iconIds
+     *         The ids of the icons to load.
+     * @param targetSize
+     *         The size in pixels the icons are displayed at or <code>0</code> for icons in their original size.
+     */
+    public void warmUp(final long[] iconIds, final int targetSize)
+    {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (long iconId : iconIds)
+                {
+                    if (iconId != NO_ICON && !isCached(iconId, targetSize))
+                    {
+                        Bitmap bitmap = mDiskCache.get(iconId, targetSize);
+                        if (bitmap != null)
+                        {
+                            mLoader.deliver(iconId, targetSize, bitmap);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Evicts the least recently used images from the memory cache until it's smaller than the given size.
+     *
+     * @param maxSize
+     *         The maximum number of bytes the memory cache should occupy after this call.
+     */
+    public void trimMemoryCache(int maxSize)
+    {
+        mImageCache.trimToSize(maxSize);
+    }
+
+
+    @Override
+    public void onTrimMemory(int level)
+    {
+        if (level >= TRIM_MEMORY_MODERATE)
+        {
+            // we're about to be killed, release everything we can
+            mImageCache.evictAll();
+            mBitmapPool.trimToSize(0);
+            synchronized (this)
+            {
+                // unmap the icon pack, it's mapped again when it's needed
+                mIconPack = null;
+                mIconPackOpened = false;
+            }
+            if (level >= TRIM_MEMORY_COMPLETE)
+            {
+                // the system is short on resources in general, give back half of the disk cache too, that's file I/O, so do it in the background
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        mDiskCache.trimToSize(DISK_CACHE_SIZE / 2);
+                    }
+                });
+            }
+        }
+        else if (level >= TRIM_MEMORY_BACKGROUND)
+        {
+            mImageCache.trimToSize(mImageCache.maxSize() / 4);
+            mBitmapPool.trimToSize(0);
+            updateIconPack();
+        }
+        else if (level >= TRIM_MEMORY_UI_HIDDEN)
+        {
+            // the images we show are no longer visible, a good time to update the icon pack
+            mImageCache.trimToSize(mImageCache.maxSize() / 2);
+            mBitmapPool.trimToSize(0);
+            updateIconPack();
+        }
+        else if (level >= TRIM_MEMORY_RUNNING_CRITICAL)
+        {
+            mImageCache.trimToSize(mImageCache.maxSize() / 4);
+            mBitmapPool.trimToSize(0);
+        }
+        else if (level >= TRIM_MEMORY_RUNNING_LOW)
+        {
+            mImageCache.trimToSize(mImageCache.maxSize() / 2);
+            mBitmapPool.trimToSize(BITMAP_POOL_SIZE / 2);
+        }
+        else if (level >= TRIM_MEMORY_RUNNING_MODERATE)
+        {
+            mImageCache.trimToSize(mImageCache.maxSize() * 3 / 4);
+        }
+    }
+
+
+    @Override
+    public void onLowMemory()
+    {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig)
+    {
+        // nothing to do
+    }
+
+
+    /**
+     * Evicts the least recently used images from the disk cache until it's smaller than the given size. Note that this performs file system I/O.
+     *
+     * @param maxSize
+     *         The maximum number of bytes the disk cache should occupy after this call.
+     */
+    public void trimDiskCache(long maxSize)
+    {
+        mDiskCache.trimToSize(maxSize);
+    }
+
+
+    /**
+     * Returns the number of images that have been served by the memory cache.
+     */
+    public int memoryCacheHitCount()
+    {
+        return mImageCache.hitCount();
+    }
+
+
+    /**
+     * Returns the number of images that have not been found in the memory cache.
+     */
+    public int memoryCacheMissCount()
+    {
+        return mImageCache.missCount();
+    }
+
+
+    /**
+     * Returns the number of images that have been served by the disk cache.
+     */
+    public int diskCacheHitCount()
+    {
+        return mDiskCache.hitCount();
+    }
+
+
+    /**
+     * Returns the number of images that have not been found in the disk cache.
+     */
+    public int diskCacheMissCount()
+    {
+        return mDiskCache.missCount();
+    }
+
+
+    /**
+     * Returns the {@link ImageDiskCache} of this proxy.
+     */
+    ImageDiskCache diskCache()
+    {
+        return mDiskCache;
+    }
+
+
+    /**
+     * Returns the {@link IconPack} of this proxy. The icon pack file is mapped on the first call, so don't call this on the main thread.
+     *
+     * @return The {@link IconPack} or <code>null</code> if there is none yet.
+     */
+    synchronized IconPack iconPack()
+    {
+        if (!mIconPackOpened)
+        {
+            mIconPackOpened = true;
+            mIconPack = IconPack.open(iconPackFile());
+        }
+        return mIconPack;
+    }
+
+
+    /**
+     * Returns whether the given icon is known to be opaque, either from an earlier decode or from the disk cache. Don't call this on the main thread, it may
+     * have to initialize the disk cache.
+     *
+     * @param iconId
+     *         The id of the icon.
+     * @param targetSize
+     *         The size in pixels the icon has been scaled to.
+     *
+     * @return <code>true</code> if the icon is opaque, <code>false</code> if it's not or if that's unknown.
+     */
+    boolean isOpaque(long iconId, int targetSize)
+    {
+        Boolean opaque;
+        synchronized (mOpacity)
+        {
+            opaque = mOpacity.get(iconId);
+        }
+        return opaque == null ? mDiskCache.isOpaque(iconId, targetSize) : opaque;
+    }
+
+
+    /**
+     * Remembers whether the given icon is opaque.
+     *
+     * @param iconId
+     *         The id of the icon.
+     * @param opaque
+     *         Whether the icon has no translucent pixels.
+     */
+    void setOpaque(long iconId, boolean opaque)
+    {
+        synchronized (mOpacity)
+        {
+            mOpacity.put(iconId, opaque);
+        }
+    }
+
+
+    /**
+     * Returns the {@link BitmapPool} of this proxy.
+     */
+    BitmapPool bitmapPool()
+    {
+        return mBitmapPool;
+    }
+
+
+    /**
+     * Publish a loaded image. The image is put into the memory cache and the listeners waiting for it are removed in one atomic step, so no request can slip
+     * in between. If the image could not be loaded the listeners are removed as well, so the next request for this image triggers another attempt.
+     * <p>
+     * This may be called on any thread. Pass the result to {@link #notifyListeners(long, Bitmap, Object)} on the main thread.
+     * </p>
+     *
+     * @param iconId
+     *         The id of the image that has been loaded.
+     * @param targetSize
+     *         The size in pixels the image has been scaled to.
+     * @param result
+     *         The image or <code>null</code> if it could not be loaded.
+     *
+     * @return The listeners to notify or <code>null</code> if there are none.
+     */
+    Object publish(long iconId, int targetSize, Bitmap result)
+    {
+        synchronized (mRequests)
+        {
+            if (result != null)
+            {
+                mImageCache.put(cacheKey(iconId, targetSize), result);
+            }
+            return mRequests.drain(cacheKey(iconId, targetSize));
+        }
+    }
+
+
+    /**
+     * Notify the listeners returned by {@link #publish(long, int, Bitmap)} about a loaded image. This must be called on the main thread.
      *
      * @param iconId
      *         The id of the image that has been loaded.
      * @param result
      *         The image.
+     * @param listeners
+     *         The listeners as returned by {@link #publish(long, int, Bitmap)}.
      */
-    void imageReady(long iconId, Drawable result)
+    void notifyListeners(long iconId, Bitmap result, Object listeners)
     {
-        if (result == null)
+        for (ImageAvailableListener listener : ImageRequestRegistry.listeners(listeners))
         {
-            return;
+            if (listener != null)
+            {
+                listener.imageAvailable(iconId, new BitmapDrawable(mAppContext.getResources(), result));
+            }
+            else
+            {
+                mMetrics.onDeadListener(iconId);
+            }
+        }
+    }
+
+
+    /**
+     * Loads the icon with the given id from the icon cache of the content provider and decodes it at the given size.
+     *
+     * @param iconId
+     *         The id of the icon to load.
+     * @param targetSize
+     *         The size in pixels to scale the icon to or <code>0</code> to keep the original size.
+     *
+     * @return The {@link Bitmap} or <code>null</code> if the icon could not be decoded.
+     *
+     * @throws FileNotFoundException
+     *         If the icon has not been cached by the content provider.
+     * @throws IOException
+     *         If the icon could not be read.
+     */
+    Bitmap loadIcon(long iconId, int targetSize) throws IOException
+    {
+        Metrics metrics = mMetrics;
+        long start = System.nanoTime();
+        byte[] data;
+        try
+        {
+            data = readIcon(mAppContext, iconId);
+        }
+        catch (FileNotFoundException e)
+        {
+            metrics.onProviderCacheLookup(iconId, false);
+            throw e;
+        }
+        long read = System.nanoTime();
+        metrics.onProviderCacheLookup(iconId, true);
+        metrics.onProviderRead(iconId, data.length, read - start);
+
+        Boolean knownOpaque;
+        synchronized (mOpacity)
+        {
+            knownOpaque = mOpacity.get(iconId);
         }
 
-        synchronized (mImageCache)
+        Bitmap result = BitmapUtils.decodeSampled(data, targetSize, knownOpaque != null && knownOpaque, mBitmapPool);
+        if (result != null && knownOpaque == null)
         {
-            // put the icon into the cache
-            mImageCache.put(iconId, result);
+            // this is the first decode of the icon, find out once whether it's opaque
+            boolean opaque = BitmapUtils.isOpaque(result);
+            if (opaque)
+            {
+                // this makes the disk cache store the icon as opaque
+                result.setHasAlpha(false);
+            }
+            setOpaque(iconId, opaque);
         }
+        metrics.onDecode(iconId, System.nanoTime() - read);
+        return result;
+    }
+
 
-        Set<WeakReference<ImageAvailableListener>> listeners = null;
-        synchronized (mJobWaitQueue)
+    /**
+     * Writes a new icon pack that contains the given candidates and as many icons of the current pack as fit. The icon data is streamed from the disk cache
+     * and the current pack, so it's never loaded into memory all at once.
+     */
+    private void writeIconPack(long[] candidates)
+    {
+        final IconPack oldPack = iconPack();
+        int count = candidates.length + (oldPack == null ? 0 : oldPack.size());
+        long[] keys = new long[count];
+        int[] lengths = new int[count];
+        final LongSparseArray<File> files = new LongSparseArray<File>(candidates.length);
+        int size = 0;
+        count = 0;
+
+        // new icons come first, they are the ones that have been displayed most recently
+        for (long key : candidates)
         {
-            listeners = mJobWaitQueue.get(iconId);
-            // all listeners will be notified now, so remove them
-            mJobWaitQueue.remove(iconId);
+            File file = mDiskCache.file(key >>> 16, (int) (key & 0x0ffff));
+            long length = file == null ? 0 : file.length();
+            if (length > 0 && size + length <= ICON_PACK_SIZE && (oldPack == null || !oldPack.contains(key)))
+            {
+                files.put(key, file);
+                keys[count] = key;
+                lengths[count++] = (int) length;
+                size += length;
+            }
         }
 
-        if (listeners != null)
+        if (count == 0)
         {
-            // notify listeners
-            for (WeakReference<ImageAvailableListener> listenerRef : listeners)
+            // nothing new
+            return;
+        }
+
+        if (oldPack != null)
+        {
+            for (long key : oldPack.iconIds())
+            {
+                int length = oldPack.length(key);
+                if (length > 0 && size + length <= ICON_PACK_SIZE)
+                {
+                    keys[count] = key;
+                    lengths[count++] = length;
+                    size += length;
+                }
+            }
+        }
+
+        try
+        {
+            File file = iconPackFile();
+            IconPack.write(file, Arrays.copyOf(keys, count), Arrays.copyOf(lengths, count), new IconPack.Source()
             {
-                ImageAvailableListener listener = listenerRef.get();
-                if (listener != null)
+                @Override
+                public void copyTo(long key, OutputStream out) throws IOException
                 {
-                    listener.imageAvailable(iconId, result);
+                    File file = files.get(key);
+                    if (file == null)
+                    {
+                        oldPack.copyTo(key, out);
+                        return;
+                    }
+
+                    // the file may have been evicted in the meantime, in which case this fails and we try again next time
+                    InputStream in = new FileInputStream(file);
+                    try
+                    {
+                        byte[] buffer = new byte[8 * 1024];
+                        int read;
+                        while ((read = in.read(buffer)) > 0)
+                        {
+                            out.write(buffer, 0, read);
+                        }
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
                 }
+            });
+            IconPack newPack = IconPack.open(file);
+            synchronized (this)
+            {
+                // readers of the old pack are not affected, the old mapping stays valid
+                mIconPack = newPack;
             }
         }
+        catch (IOException e)
+        {
+            Log.e(TAG, "could not write icon pack", e);
+        }
+    }
+
+
+    /**
+     * Reads the encoded icon with the given id from the icon cache of the content provider. This never downloads the icon.
+     *
+     * @throws FileNotFoundException
+     *         If the icon has not been cached by the content provider.
+     * @throws IOException
+     *         If the icon could not be read.
+     */
+    private static byte[] readIcon(Context context, long iconId) throws IOException
+    {
+        AssetFileDescriptor afd = CalendarContentContract.Icon.getIcon(context, iconId, false);
+        FileInputStream inputStream = afd.createInputStream();
+        try
+        {
+            return BitmapUtils.readFully(inputStream);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+
+    private File iconPackFile()
+    {
+        return new File(mAppContext.getNoBackupFilesDir(), ICON_PACK_FILE);
     }
 
 
     /**
-     * A cache for the images.
+     * Returns the memory cache key of an image.
+     *
+     * @param iconId
+     *         The id of the image.
+     * @param targetSize
+     *         The size in pixels of the image.
+     *
+     * @return A key that identifies the image in the given size.
+     */
+    static long cacheKey(long iconId, int targetSize)
+    {
+        return (iconId << 16) + (targetSize & 0x0ffff);
+    }
+
+
+    /**
+     * A cache for the decoded images.
      */
-    class ImageCache extends LruCache<Long, Drawable>
+    class ImageCache extends LruCache<Long, Bitmap>
     {
 
         /**
@@ -243,10 +1167,19 @@ public class ImageProxy
 
 
         @Override
-        protected int sizeOf(Long key, Drawable value)
+        protected int sizeOf(Long key, Bitmap value)
         {
-            // assume all images are 32 bit uncompressed - this is just a rough estimation
-            return Math.abs(value.getIntrinsicHeight()) * Math.abs(value.getIntrinsicWidth()) * 4;
+            return value.getAllocationByteCount();
+        }
+
+
+        @Override
+        protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue)
+        {
+            if (evicted)
+            {
+                mMetrics.onMemoryCacheEviction(oldValue.getAllocationByteCount());
+            }
         }
     }
 }
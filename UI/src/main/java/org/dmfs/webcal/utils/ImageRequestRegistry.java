@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import org.dmfs.webcal.utils.ImageProxy.ImageAvailableListener;
+
+import java.lang.ref.WeakReference;
+
+import androidx.collection.LongSparseArray;
+
+
+/**
+ * Maps images to the {@link ImageAvailableListener}s waiting for them. Images are identified by their cache key, so each size of an image has its own
+ * listeners. Listeners are only referenced weakly.
+ * <p>
+ * Keys are primitive <code>long</code>s. The common case of a single listener per image is stored as a plain {@link WeakReference}, only images with more than
+ * one listener get an array.
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class ImageRequestRegistry
+{
+    /**
+     * Maps cache keys to either a single {@link WeakReference} or an array of {@link WeakReference}s.
+     */
+    private final LongSparseArray<Object> mListeners = new LongSparseArray<Object>(64);
+
+
+    /**
+     * Adds a listener for the given image.
+     *
+     * @param key
+     *         The cache key of the image.
+     * @param listener
+     *         The {@link ImageAvailableListener} to add.
+     *
+     * @return <code>true</code> if this is the first listener for this image, <code>false</code> if the image has been requested before.
+     */
+    public boolean add(long key, ImageAvailableListener listener)
+    {
+        Object entry = mListeners.get(key);
+        if (entry == null)
+        {
+            mListeners.put(key, new WeakReference<ImageAvailableListener>(listener));
+            return true;
+        }
+
+        WeakReference<ImageAvailableListener>[] refs = asArray(entry);
+        for (WeakReference<ImageAvailableListener> ref : refs)
+        {
+            if (ref.get() == listener)
+            {
+                // already registered
+                return false;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        WeakReference<ImageAvailableListener>[] newRefs = new WeakReference[refs.length + 1];
+        System.arraycopy(refs, 0, newRefs, 0, refs.length);
+        newRefs[refs.length] = new WeakReference<ImageAvailableListener>(listener);
+        mListeners.put(key, newRefs);
+        return false;
+    }
+
+
+    /**
+     * Removes a listener for the given image. Listeners that have been garbage collected are removed as well.
+     *
+     * @param key
+     *         The cache key of the image.
+     * @param listener
+     *         The {@link ImageAvailableListener} to remove.
+     *
+     * @return <code>true</code> if no listener waits for this image anymore, <code>false</code> otherwise.
+     */
+    public boolean remove(long key, ImageAvailableListener listener)
+    {
+        Object entry = mListeners.get(key);
+        if (entry == null)
+        {
+            return false;
+        }
+
+        if (entry instanceof WeakReference)
+        {
+            // the common case, a single listener
+            @SuppressWarnings("unchecked")
+            ImageAvailableListener l = ((WeakReference<ImageAvailableListener>) entry).get();
+            if (l == null || l == listener)
+            {
+                mListeners.remove(key);
+                return true;
+            }
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        WeakReference<ImageAvailableListener>[] refs = (WeakReference<ImageAvailableListener>[]) entry;
+        int remaining = 0;
+        for (int i = 0; i < refs.length; ++i)
+        {
+            ImageAvailableListener l = refs[i].get();
+            if (l != null && l != listener)
+            {
+                refs[remaining++] = refs[i];
+            }
+        }
+
+        if (remaining == 0)
+        {
+            mListeners.remove(key);
+            return true;
+        }
+
+        if (remaining == 1)
+        {
+            mListeners.put(key, refs[0]);
+        }
+        else if (remaining < refs.length)
+        {
+            @SuppressWarnings("unchecked")
+            WeakReference<ImageAvailableListener>[] newRefs = new WeakReference[remaining];
+            System.arraycopy(refs, 0, newRefs, 0, remaining);
+            mListeners.put(key, newRefs);
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns whether any listener waits for the given image.
+     *
+     * @param key
+     *         The cache key of the image.
+     *
+     * @return <code>true</code> if the image has been requested.
+     */
+    public boolean contains(long key)
+    {
+        return mListeners.get(key) != null;
+    }
+
+
+    /**
+     * Removes all listeners of the given image and returns them. Pass the result to {@link #listeners(Object)} to get the listeners.
+     *
+     * @param key
+     *         The cache key of the image.
+     *
+     * @return An opaque object that holds the listeners or <code>null</code> if there are none.
+     */
+    public Object drain(long key)
+    {
+        Object entry = mListeners.get(key);
+        if (entry != null)
+        {
+            mListeners.remove(key);
+        }
+        return entry;
+    }
+
+
+    /**
+     * Returns the listeners that are still alive from the result of {@link #drain(long)}.
+     *
+     * @param drained
+     *         The result of {@link #drain(long)}, may be <code>null</code>.
+     *
+     * @return An array of {@link ImageAvailableListener}s. Elements are <code>null</code> for listeners that have been garbage collected.
+     */
+    public static ImageAvailableListener[] listeners(Object drained)
+    {
+        if (drained == null)
+        {
+            return new ImageAvailableListener[0];
+        }
+
+        WeakReference<ImageAvailableListener>[] refs = asArray(drained);
+        ImageAvailableListener[] result = new ImageAvailableListener[refs.length];
+        for (int i = 0; i < refs.length; ++i)
+        {
+            result[i] = refs[i].get();
+        }
+        return result;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static WeakReference<ImageAvailableListener>[] asArray(Object entry)
+    {
+        if (entry instanceof WeakReference)
+        {
+            return new WeakReference[] { (WeakReference<ImageAvailableListener>) entry };
+        }
+        return (WeakReference<ImageAvailableListener>[]) entry;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import java.util.HashMap;
+
+
+/**
+ * A LIFO queue of image jobs without duplicates. Jobs are identified by the id and the target size of the image. Adding a job that's already in the queue
+ * moves it to the top. All operations take constant time.
+ * <p>
+ * Jobs are either regular jobs or low priority prefetch jobs. Prefetch jobs are only returned by {@link #pop()} if there are no regular jobs. A prefetch job
+ * becomes a regular job when it's added again as a regular job.
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class LifoJobQueue
+{
+    /**
+     * A job in the queue.
+     */
+    final static class Job
+    {
+        /**
+         * The id of the image to load.
+         */
+        final long iconId;
+
+        /**
+         * The size in pixels to scale the image to.
+         */
+        final int targetSize;
+
+        /**
+         * The cache key of the image, see {@link ImageProxy#cacheKey(long, int)}.
+         */
+        final long key;
+
+        /**
+         * Whether this is a low priority prefetch job.
+         */
+        boolean prefetch;
+
+        /**
+         * The value of {@link System#nanoTime()} when this job has been added to the queue.
+         */
+        final long enqueueTime = System.nanoTime();
+
+        private Job mNewer;
+        private Job mOlder;
+
+
+        private Job(long iconId, int targetSize, boolean prefetch)
+        {
+            this.iconId = iconId;
+            this.targetSize = targetSize;
+            this.prefetch = prefetch;
+            this.key = ImageProxy.cacheKey(iconId, targetSize);
+        }
+    }
+
+
+    private final HashMap<Long, Job> mJobs = new HashMap<Long, Job>(64);
+
+    /**
+     * The regular job that has been added most recently.
+     */
+    private Job mTop;
+
+    /**
+     * The prefetch job that has been added most recently.
+     */
+    private Job mPrefetchTop;
+
+
+    /**
+     * Puts a regular job on top of the queue. If there already is a job for this image and size it's moved to the top.
+     *
+     * @param iconId
+     *         The id of the image to load.
+     * @param targetSize
+     *         The size in pixels to scale the image to.
+     *
+     * @return <code>true</code> if a new job has been added, <code>false</code> if an existing job has been moved to the top.
+     */
+    public boolean push(long iconId, int targetSize)
+    {
+        return push(iconId, targetSize, false);
+    }
+
+
+    /**
+     * Puts a job on top of the queue. If there already is a job for this image and size it's moved to the top. Regular jobs are never turned into prefetch
+     * jobs.
+     *
+     * @param iconId
+     *         The id of the image to load.
+     * @param targetSize
+     *         The size in pixels to scale the image to.
+     * @param prefetch
+     *         Whether this is a low priority prefetch job.
+     *
+     * @return <code>true</code> if a new job has been added, <code>false</code> if an existing job has been moved to the top.
+     */
+    public boolean push(long iconId, int targetSize, boolean prefetch)
+    {
+        long key = ImageProxy.cacheKey(iconId, targetSize);
+        Job job = mJobs.get(key);
+        boolean added = job == null;
+        if (added)
+        {
+            job = new Job(iconId, targetSize, prefetch);
+            mJobs.put(key, job);
+        }
+        else
+        {
+            unlink(job);
+            job.prefetch &= prefetch;
+        }
+
+        if (job.prefetch)
+        {
+            job.mOlder = mPrefetchTop;
+            if (mPrefetchTop != null)
+            {
+                mPrefetchTop.mNewer = job;
+            }
+            mPrefetchTop = job;
+        }
+        else
+        {
+            job.mOlder = mTop;
+            if (mTop != null)
+            {
+                mTop.mNewer = job;
+            }
+            mTop = job;
+        }
+        return added;
+    }
+
+
+    /**
+     * Removes the most recent regular job from the queue and returns it. If there are no regular jobs the most recent prefetch job is returned.
+     *
+     * @return A {@link Job} or <code>null</code> if the queue is empty.
+     */
+    public Job pop()
+    {
+        Job job = mTop != null ? mTop : mPrefetchTop;
+        if (job != null)
+        {
+            mJobs.remove(job.key);
+            unlink(job);
+        }
+        return job;
+    }
+
+
+    /**
+     * Removes the job for the given image and size from the queue.
+     *
+     * @param iconId
+     *         The id of the image.
+     * @param targetSize
+     *         The size in pixels to scale the image to.
+     *
+     * @return <code>true</code> if there was such a job, <code>false</code> otherwise.
+     */
+    public boolean remove(long iconId, int targetSize)
+    {
+        Job job = mJobs.remove(ImageProxy.cacheKey(iconId, targetSize));
+        if (job != null)
+        {
+            unlink(job);
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns the number of jobs in this queue.
+     */
+    public int size()
+    {
+        return mJobs.size();
+    }
+
+
+    private void unlink(Job job)
+    {
+        if (job.mNewer != null)
+        {
+            job.mNewer.mOlder = job.mOlder;
+        }
+        if (job.mOlder != null)
+        {
+            job.mOlder.mNewer = job.mNewer;
+        }
+        if (mTop == job)
+        {
+            mTop = job.mOlder;
+        }
+        if (mPrefetchTop == job)
+        {
+            mPrefetchTop = job.mOlder;
+        }
+        job.mNewer = null;
+        job.mOlder = null;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.Arrays;
+
+import androidx.collection.LruCache;
+
+
+/**
+ * A process wide cache of the results of recent queries. Lists can show the cached result right away, while the actual query runs in the background.
+ * <p>
+ * The cache stores a copy of the values of a result. Each call to {@link #get(String)} returns a new {@link Cursor} on top of these values, so cached results
+ * can be shown by multiple lists at the same time.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public enum QuerySnapshotCache
+{
+    INSTANCE;
+
+    /**
+     * The maximum number of results to keep.
+     */
+    private final static int MAX_ENTRIES = 8;
+
+    private final LruCache<String, CursorSnapshot> mSnapshots = new LruCache<String, CursorSnapshot>(MAX_ENTRIES);
+
+
+    /**
+     * Returns the key of the query with the given arguments.
+     *
+     * @param uri
+     *         The {@link Uri} of the query.
+     * @param projection
+     *         The projection of the query, may be <code>null</code>.
+     * @param selection
+     *         The selection of the query, may be <code>null</code>.
+     * @param selectionArgs
+     *         The selection arguments of the query, may be <code>null</code>.
+     * @param sortOrder
+     *         The sort order of the query, may be <code>null</code>.
+     *
+     * @return The key.
+     */
+    public static String key(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+    {
+        // the queries of this app don't contain line breaks, so the arguments can't run into each other
+        return uri + "\n" + Arrays.toString(projection) + "\n" + selection + "\n" + Arrays.toString(selectionArgs) + "\n" + sortOrder;
+    }
+
+
+    /**
+     * Returns a {@link Cursor} with the last result of the query with the given key.
+     *
+     * @param key
+     *         The key of the query as returned by {@link #key(Uri, String[], String, String[], String)}.
+     *
+     * @return A {@link Cursor} or <code>null</code> if there is no result in the cache.
+     */
+    public Cursor get(String key)
+    {
+        CursorSnapshot snapshot = mSnapshots.get(key);
+        return snapshot == null ? null : snapshot.cursor();
+    }
+
+
+    /**
+     * Returns whether the cache contains a result of the query with the given key.
+     *
+     * @param key
+     *         The key of the query as returned by {@link #key(Uri, String[], String, String[], String)}.
+     *
+     * @return <code>true</code> if there is a result in the cache.
+     */
+    public boolean contains(String key)
+    {
+        return mSnapshots.get(key) != null;
+    }
+
+
+    /**
+     * Stores the given snapshot of a result in the cache. An equal snapshot in the cache is kept, so cursors on it remain valid copies of the latest result.
+     *
+     * @param key
+     *         The key of the query as returned by {@link #key(Uri, String[], String, String[], String)}.
+     * @param snapshot
+     *         The {@link CursorSnapshot} of the result.
+     */
+    public void put(String key, CursorSnapshot snapshot)
+    {
+        if (!snapshot.equals(mSnapshots.get(key)))
+        {
+            mSnapshots.put(key, snapshot);
+        }
+    }
+
+
+    /**
+     * Stores a copy of the given result in the cache. This iterates the entire cursor, so don't call it on the main thread.
+     *
+     * @param key
+     *         The key of the query as returned by {@link #key(Uri, String[], String, String[], String)}.
+     * @param cursor
+     *         The result of the query, may be <code>null</code>.
+     */
+    public void put(String key, Cursor cursor)
+    {
+        if (cursor == null)
+        {
+            mSnapshots.remove(key);
+            return;
+        }
+
+        put(key, CursorSnapshot.copy(cursor));
+    }
+
+
+    /**
+     * Removes all results from the cache.
+     */
+    public void evictAll()
+    {
+        mSnapshots.evictAll();
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2014 SchedJoules
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.webcal.utils;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.dmfs.android.calendarcontent.provider.CalendarContentContract.ContentItem;
+
+import androidx.collection.LongSparseArray;
+
+
+/**
+ * A process wide writer of the starred state of items. Changes are written in the background in batches. Changing the same item again before its change has
+ * been written replaces the queued change, so rapid toggles result in a single write, or none if the item ends up in the state the provider already has.
+ * <p>
+ * Until a change has been written, the provider still returns the old state. Views should pass the stored state through {@link #isStarred(long, boolean)}
+ * to show the new state right away.
+ * </p>
+ * <p>
+ * Changes that could not be written are retried with the next batch. After {@link #MAX_ATTEMPTS} failed attempts the change is dropped and the items are
+ * reloaded, so the views show the state that has actually been stored.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public enum StarWriter
+{
+    INSTANCE;
+
+    private final static String TAG = "StarWriter";
+
+    /**
+     * The time in milliseconds to wait for more changes before a batch is written.
+     */
+    private final static long BATCH_DELAY = 500;
+
+    /**
+     * The time in milliseconds to wait before changes that failed are written again.
+     */
+    private final static long RETRY_DELAY = 5000;
+
+    /**
+     * The number of times we try to write a change before we give up.
+     */
+    private final static int MAX_ATTEMPTS = 3;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The changes that have not been handed to a batch yet by item id.
+     */
+    private final LongSparseArray<Boolean> mQueued = new LongSparseArray<Boolean>(8);
+
+    /**
+     * The state the provider has, or will have once the batches in progress are written, at the time the first queued change of an item was made, by item
+     * id. A queued change that equals this state is not written.
+     */
+    private final LongSparseArray<Boolean> mBase = new LongSparseArray<Boolean>(8);
+
+    /**
+     * The number of failed attempts to write the queued change of an item by item id.
+     */
+    private final LongSparseArray<Integer> mAttempts = new LongSparseArray<Integer>(8);
+
+    /**
+     * The state that's being written by the most recent batch in progress by item id.
+     */
+    private final LongSparseArray<Boolean> mWriting = new LongSparseArray<Boolean>(8);
+
+    /**
+     * The number of batches in progress that write an item by item id.
+     */
+    private final LongSparseArray<Integer> mWritingBatches = new LongSparseArray<Integer>(8);
+
+    private Context mAppContext;
+
+    private final Runnable mFlush = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            flush();
+        }
+    };
+
+
+    /**
+     * Change the starred state of the given item. The change is written in the background.
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param id
+     *         The id of the item.
+     * @param stored
+     *         The starred state as returned by the provider.
+     * @param starred
+     *         The new starred state.
+     */
+    public void setStarred(Context context, long id, boolean stored, boolean starred)
+    {
+        synchronized (this)
+        {
+            mAppContext = context.getApplicationContext();
+            if (mQueued.get(id) == null)
+            {
+                // remember what the provider has right now, batches in progress take precedence over the stored state
+                Boolean writing = mWriting.get(id);
+                mBase.put(id, writing == null ? stored : writing);
+                mAttempts.remove(id);
+            }
+            mQueued.put(id, starred);
+        }
+        mHandler.removeCallbacks(mFlush);
+        mHandler.postDelayed(mFlush, BATCH_DELAY);
+    }
+
+
+    /**
+     * Returns the starred state of the given item, taking changes into account that have not been written yet.
+     *
+     * @param id
+     *         The id of the item.
+     * @param stored
+     *         The starred state as returned by the provider.
+     *
+     * @return The current starred state.
+     */
+    public boolean isStarred(long id, boolean stored)
+    {
+        synchronized (this)
+        {
+            Boolean queued = mQueued.get(id);
+            if (queued != null)
+            {
+                return queued;
+            }
+            Boolean writing = mWriting.get(id);
+            return writing == null ? stored : writing;
+        }
+    }
+
+
+    /**
+     * Write all queued changes in the background. Changes that match the state of the provider are dropped.
+     */
+    private void flush()
+    {
+        final Context context;
+        final LongSparseArray<Boolean> batch = new LongSparseArray<Boolean>(8);
+        final LongSparseArray<Boolean> base = new LongSparseArray<Boolean>(8);
+        synchronized (this)
+        {
+            for (int i = 0, count = mQueued.size(); i < count; ++i)
+            {
+                long id = mQueued.keyAt(i);
+                Boolean starred = mQueued.valueAt(i);
+                if (!starred.equals(mBase.get(id)))
+                {
+                    batch.put(id, starred);
+                    base.put(id, mBase.get(id));
+                    mWriting.put(id, starred);
+                    Integer batches = mWritingBatches.get(id);
+                    mWritingBatches.put(id, batches == null ? 1 : batches + 1);
+                }
+                else
+                {
+                    // the item has been toggled back, nothing to write
+                    mAttempts.remove(id);
+                }
+            }
+            mQueued.clear();
+            mBase.clear();
+            if (batch.isEmpty())
+            {
+                return;
+            }
+            context = mAppContext;
+        }
+
+        // use the serial executor, so batches are written in order
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                LongSparseArray<Boolean> failed = new LongSparseArray<Boolean>(0);
+                for (int i = 0, count = batch.size(); i < count; ++i)
+                {
+                    try
+                    {
+                        ContentItem.setStarred(context, batch.keyAt(i), batch.valueAt(i));
+                    }
+                    catch (RuntimeException e)
+                    {
+                        Log.e(TAG, "could not write starred state of item " + batch.keyAt(i), e);
+                        failed.put(batch.keyAt(i), batch.valueAt(i));
+                    }
+                }
+                finish(context, batch, base, failed);
+            }
+        });
+    }
+
+
+    /**
+     * Forget the written changes of the given batch and queue the failed ones again, unless they have been changed in the meantime.
+     */
+    private void finish(Context context, LongSparseArray<Boolean> batch, LongSparseArray<Boolean> base, LongSparseArray<Boolean> failed)
+    {
+        boolean retry = false;
+        boolean dropped = false;
+        synchronized (this)
+        {
+            for (int i = 0, count = batch.size(); i < count; ++i)
+            {
+                long id = batch.keyAt(i);
+                int batches = mWritingBatches.get(id) - 1;
+                if (batches == 0)
+                {
+                    mWritingBatches.remove(id);
+                    mWriting.remove(id);
+                }
+                else
+                {
+                    mWritingBatches.put(id, batches);
+                }
+
+                if (failed.get(id) == null || mQueued.get(id) != null)
+                {
+                    // written, or superseded by a newer change
+                    mAttempts.remove(id);
+                    continue;
+                }
+
+                Integer attempts = mAttempts.get(id);
+                attempts = attempts == null ? 1 : attempts + 1;
+                if (attempts < MAX_ATTEMPTS)
+                {
+                    mQueued.put(id, failed.get(id));
+                    mBase.put(id, base.get(id));
+                    mAttempts.put(id, attempts);
+                    retry = true;
+                }
+                else
+                {
+                    mAttempts.remove(id);
+                    dropped = true;
+                }
+            }
+        }
+
+        if (retry)
+        {
+            mHandler.postDelayed(mFlush, RETRY_DELAY);
+        }
+        if (dropped)
+        {
+            // let the lists load the state that's actually stored
+            context.getContentResolver().notifyChange(ContentItem.getContentUri(context), null);
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.dmfs.webcal.views;
 import android.content.Context;
 import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 
 import org.dmfs.webcal.utils.ImageProxy;
@@ -30,6 +31,10 @@ import androidx.appcompat.widget.AppCompatImageView;
 
 /**
  * An {@link ImageView} that can load its content asynchronously.
+ * <p>
+ * Pending requests are cancelled when the view is bound to another image or detached from its window, so images nobody is going to see are neither
+ * downloaded nor decoded. A cancelled request is made again when the view is attached again.
+ * </p>
  *
  * @author Arjun Naik
  * @author Marten Gajda <marten@dmfs.org>
@@ -42,7 +47,17 @@ public class RemoteImageView extends AppCompatImageView implements ImageAvailabl
     private final static int ANIMATION_DURATION = 250; // ms
 
     private ImageProxy mImageProxy;
-    private long mSource;
+    private long mSource = -1;
+
+    /**
+     * Whether we're waiting for {@link #mSource} to be loaded.
+     */
+    private boolean mPending;
+
+    /**
+     * The size {@link #mSource} has been requested at.
+     */
+    private int mPendingSize;
 
 
     public RemoteImageView(Context context)
@@ -88,15 +103,25 @@ public class RemoteImageView extends AppCompatImageView implements ImageAvailabl
      */
     public void setRemoteSource(long iconId, boolean useSpaceIfNoImage)
     {
-        if (iconId == -1 && !useSpaceIfNoImage)
+        if (mPending && iconId != mSource)
+        {
+            // the view has been recycled, we're no longer interested in the old image
+            mImageProxy.cancel(mSource, mPendingSize, this);
+            mPending = false;
+        }
+
+        if (iconId == ImageProxy.NO_ICON && !useSpaceIfNoImage)
         {
             // no icon
+            mSource = -1;
             setVisibility(GONE);
             return;
         }
         setVisibility(VISIBLE);
 
-        Drawable image = mImageProxy.getImage(iconId, this);
+        mPendingSize = targetSize();
+        Drawable image = mImageProxy.getImage(iconId, mPendingSize, this);
+        mPending = image == null && iconId != ImageProxy.NO_ICON;
 
         if (image != null)
         {
@@ -112,11 +137,61 @@ public class RemoteImageView extends AppCompatImageView implements ImageAvailabl
     }
 
 
+    @Override
+    protected void onAttachedToWindow()
+    {
+        super.onAttachedToWindow();
+        if (mSource != -1 && getDrawable() == null && !mPending)
+        {
+            // our request has been cancelled when we were detached, request the image again
+            mPendingSize = targetSize();
+            Drawable image = mImageProxy.getImage(mSource, mPendingSize, this);
+            mPending = image == null;
+            if (image != null)
+            {
+                setImageDrawable(image);
+            }
+        }
+    }
+
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        if (mPending)
+        {
+            mImageProxy.cancel(mSource, mPendingSize, this);
+            mPending = false;
+        }
+        super.onDetachedFromWindow();
+    }
+
+
+    /**
+     * Returns the size in pixels this view displays its image at. Icons are usually laid out with a fixed size, so we can take it from the layout parameters
+     * even before the view has been measured.
+     *
+     * @return The size in pixels or <code>0</code> if the size is not known.
+     */
+    private int targetSize()
+    {
+        ViewGroup.LayoutParams params = getLayoutParams();
+        int size = params == null ? 0 : Math.max(params.width, params.height);
+        if (size <= 0)
+        {
+            size = Math.max(getWidth(), getHeight());
+        }
+        return Math.max(size, 0);
+    }
+
+
     @Override
     public void imageAvailable(long iconId, Drawable drawable)
     {
         if (iconId == mSource)
         {
+            mPending = false;
+
             // ensure we fade in the icon softly if there was no icon before
 
             boolean animate = getDrawable() == null;